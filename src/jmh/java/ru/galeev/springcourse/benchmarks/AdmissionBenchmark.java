@@ -0,0 +1,80 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.server.PathContainer;
+import ru.galeev.springcourse.util.AdaptiveConcurrencyLimit;
+import ru.galeev.springcourse.util.RequestRoute;
+import ru.galeev.springcourse.util.TokenBuckets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What {@code AdmissionFilter} adds to a request, on 4 threads with limits high enough to admit everything.
+ * {@code tokenBucketSharedKey} is every thread taking from the bucket of one client, the worst case for the
+ * CAS. {@code routes} matches a path that no route of the default configuration has against all of them,
+ * the most matching a request costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AdmissionBenchmark {
+    private static final AtomicInteger CLIENTS = new AtomicInteger();
+
+    private final TokenBuckets buckets = new TokenBuckets(1e9, 1_000_000, 100_000);
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1000, 1, 1000, 2.0,
+            TimeUnit.SECONDS.toNanos(10));
+    private final List<RequestRoute> routes = new ArrayList<>();
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final String key = "10.0.0." + CLIENTS.incrementAndGet();
+    }
+
+    @Setup
+    public void setUp() {
+        for (String route : new String[]{"GET /api/people", "GET /api/books_range", "GET /api/async/books_range",
+                "GET /api/people", "GET /api/books_range", "GET /api/async/books_range", "/api/export/**", "/api/import/**"}) {
+            routes.add(RequestRoute.parse(route));
+        }
+    }
+
+    @Benchmark
+    public long tokenBucketOwnKey(Client client) {
+        return buckets.tryAcquire(client.key, System.nanoTime());
+    }
+
+    @Benchmark
+    public long tokenBucketSharedKey() {
+        return buckets.tryAcquire("shared", System.nanoTime());
+    }
+
+    @Benchmark
+    public boolean concurrencyLimit() {
+        long start = System.nanoTime();
+        if (!limit.tryAcquire()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        limit.release(now - start, false, now);
+        return true;
+    }
+
+    @Benchmark
+    public int routes() {
+        int matched = 0;
+        PathContainer path = PathContainer.parsePath("/api/people/1/books");
+        for (RequestRoute route : routes) {
+            if (route.matches("GET", path)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.util.BatchImporter;
+import ru.galeev.springcourse.util.Convert;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-side throughput of the batch insert endpoints: streaming parse, validation and
+ * chunking of a JSON array, with the database insert replaced by a no-op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchImportBenchmark {
+    private static final int ROWS = 10000;
+
+    private BatchImporter batchImporter;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        batchImporter = new BatchImporter(Jackson2ObjectMapperBuilder.json().build(),
+                Validation.byDefaultProvider().configure()
+                        .messageInterpolator(new ParameterMessageInterpolator())
+                        .buildValidatorFactory().getValidator(),
+                1000);
+        body = Jackson2ObjectMapperBuilder.json().build().writeValueAsBytes(TestData.personDTOs(ROWS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public BatchReportDTO importPeople(Blackhole blackhole) throws IOException {
+        return batchImporter.importArray(new ByteArrayInputStream(body), PersonDTO.class,
+                batch -> blackhole.consume(Convert.convertToPeople(batch)));
+    }
+}
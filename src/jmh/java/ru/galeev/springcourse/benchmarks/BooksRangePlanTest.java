@@ -0,0 +1,146 @@
+package ru.galeev.springcourse.benchmarks;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import liquibase.integration.spring.SpringLiquibase;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.services.BooksService;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.sql.Date;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The plans PostgreSQL picks for the pages of {@code GET /api/books_range}: with the
+ * {@code (created, book_id)} index both the first page and the pages after a cursor are an index scan that
+ * stops after the page, no full scan and no sort of the whole range. The SQL is the one Hibernate sends,
+ * captured by a {@link StatementInspector}, over 200k books in an embedded PostgreSQL. Runs with
+ * {@code mvn -Pjmh test -Dtest=BooksRangePlanTest}.
+ */
+public class BooksRangePlanTest {
+    private static final int BOOKS = 200_000;
+    private static final int PAGE = 100;
+
+    private static EmbeddedPostgres postgres;
+    private static HikariDataSource dataSource;
+    private static LocalContainerEntityManagerFactoryBean factoryBean;
+    private static BooksService booksService;
+    private static JdbcTemplate jdbc;
+
+    /**
+     * The last statement Hibernate prepared.
+     */
+    public static class LastStatement implements StatementInspector {
+        static volatile String sql;
+
+        @Override
+        public String inspect(String sql) {
+            LastStatement.sql = sql;
+            return sql;
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        config.setMaximumPoolSize(2);
+        dataSource = new HikariDataSource(config);
+
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:db/changelog/db.changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.afterPropertiesSet();
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("insert into book (book_id, person_id, name, created) " +
+                "select 1000 + i, 1, 'Book ' || i, date '1900-01-01' + (i % 70000) " +
+                "from generate_series(1, " + BOOKS + ") i");
+        jdbc.execute("vacuum analyze book");
+
+        Properties properties = new Properties();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        properties.put("hibernate.session_factory.statement_inspector", LastStatement.class.getName());
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("ru.galeev.springcourse.models");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+
+        EntityManager shared = SharedEntityManagerCreator.createSharedEntityManager(factoryBean.getObject());
+        booksService = new BooksService(new JpaRepositoryFactory(shared).getRepository(BooksRepository.class),
+                InMemoryRepositories.noSnapshot());
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        factoryBean.destroy();
+        dataSource.close();
+        postgres.close();
+    }
+
+    @Test
+    public void firstPageShouldBeAnIndexScan() {
+        CursorPage<BookDTO> page = booksService.findDTOPageByCreatedDateBetween(year(1950), year(2050), null, PAGE);
+        assertEquals(PAGE, page.getItems().size());
+
+        assertIndexScan(explain(LastStatement.sql, Date.valueOf("1950-01-01"), Date.valueOf("2050-01-01"), PAGE + 1));
+    }
+
+    @Test
+    public void pageAfterCursorShouldBeAnIndexScan() {
+        CursorPage<BookDTO> first = booksService.findDTOPageByCreatedDateBetween(year(1950), year(2050), null, PAGE);
+        assertNotNull(first.getNext());
+        CursorPage<BookDTO> page = booksService.findDTOPageByCreatedDateBetween(year(1950), year(2050), first.getNext(), PAGE);
+        assertEquals(PAGE, page.getItems().size());
+
+        BookDTO last = first.getItems().get(PAGE - 1);
+        assertIndexScan(explain(LastStatement.sql, Date.valueOf("1950-01-01"), Date.valueOf("2050-01-01"),
+                new Date(last.getCreated().getTimeInMillis()), last.getId(), PAGE + 1));
+    }
+
+    private static void assertIndexScan(String plan) {
+        assertTrue(plan, plan.contains("Index Scan using book_created_book_id_idx"));
+        assertFalse(plan, plan.contains("Seq Scan"));
+        assertFalse(plan, plan.contains("Sort"));
+    }
+
+    /**
+     * The plan of {@code sql} with the parameters it was sent with, the limit included.
+     */
+    private static String explain(String sql, Object... parameters) {
+        List<String> lines = jdbc.queryForList("explain " + sql, String.class, parameters);
+        return String.join("\n", lines);
+    }
+
+    private static Calendar year(int year) {
+        return new GregorianCalendar(year, Calendar.JANUARY, 1);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.util.Convert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-written {@link Convert} mappers against the ModelMapper path they replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConvertBenchmark {
+    @Param({"1", "1000"})
+    private int size;
+
+    private final ModelMapper modelMapper = new ModelMapper();
+
+    private List<Person> people;
+    private List<Book> books;
+
+    @Setup
+    public void setUp() {
+        people = TestData.people(size);
+        books = TestData.books(people, size);
+    }
+
+    @Benchmark
+    public List<PersonDTO> convertPeople() {
+        return Convert.convertToPersonDTOs(people);
+    }
+
+    @Benchmark
+    public List<PersonDTO> modelMapperPeople() {
+        List<PersonDTO> result = new ArrayList<>();
+        for (Person person : people) {
+            result.add(modelMapper.map(person, PersonDTO.class));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<BookDTO> convertBooks() {
+        return Convert.convertToBookDTOs(books);
+    }
+
+    @Benchmark
+    public List<BookDTO> modelMapperBooks() {
+        List<BookDTO> result = new ArrayList<>();
+        for (Book book : books) {
+            result.add(modelMapper.map(book, BookDTO.class));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.BindingResult;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.util.ExceptionsHandler;
+import ru.galeev.springcourse.util.PersonNotCreatedException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning binding errors into a {@link PersonNotCreatedException}, and of the no-error case.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExceptionsHandlerBenchmark {
+    private BindingResult valid;
+    private BindingResult invalid;
+
+    @Setup
+    public void setUp() {
+        PersonDTO personDTO = new PersonDTO(1, "", -1, "not an email");
+        valid = new BeanPropertyBindingResult(personDTO, "personDTO");
+        invalid = new BeanPropertyBindingResult(personDTO, "personDTO");
+        invalid.rejectValue("name", "NotEmpty", "Name should not be empty");
+        invalid.rejectValue("age", "Min", "Age should be greater than 0");
+        invalid.rejectValue("email", "Email", "Email should be valid");
+    }
+
+    @Benchmark
+    public BindingResult noErrors() {
+        ExceptionsHandler.handler(valid);
+        return valid;
+    }
+
+    @Benchmark
+    public String bindingErrors() {
+        try {
+            ExceptionsHandler.handler(invalid);
+            return null;
+        } catch (PersonNotCreatedException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.galeev.springcourse.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import liquibase.integration.spring.SpringLiquibase;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.galeev.springcourse.dao.CatalogExportDAO;
+import ru.galeev.springcourse.util.CatalogExportWriter;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CatalogExportDAO} exporting 1M books of 100k people from an embedded PostgreSQL into a stream that
+ * only counts bytes, in rows per second. Both exports return one row per book, people without books
+ * aside. The database is generated once into {@code target/export-benchmark-pg} and reused.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+    private static final int PEOPLE = 100_000;
+    private static final int BOOKS = 1_000_000;
+
+    @Param({"ndjson", "csv"})
+    private String format;
+
+    @Param({"100", "1000", "10000"})
+    private int fetchSize;
+
+    private EmbeddedPostgres postgres;
+    private HikariDataSource dataSource;
+    private CatalogExportDAO exportDAO;
+    private TransactionTemplate transaction;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    @Setup
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder()
+                .setDataDirectory(new File("target/export-benchmark-pg"))
+                .setCleanDataDirectory(false)
+                .start();
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        config.setMaximumPoolSize(2);
+        dataSource = new HikariDataSource(config);
+        generate();
+
+        exportDAO = new CatalogExportDAO(dataSource, fetchSize, 0);
+        transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transaction.setReadOnly(true);
+    }
+
+    private void generate() throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:db/changelog/db.changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.afterPropertiesSet();
+
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        if (jdbc.queryForObject("select count(*) from book", Long.class) >= BOOKS) {
+            return;
+        }
+        jdbc.execute("insert into person (person_id, name, age, email) " +
+                "select 1000 + i, 'Person, number ' || i, 18 + i % 60, 'person' || i || '@mail.com' " +
+                "from generate_series(1, " + PEOPLE + ") i");
+        jdbc.execute("insert into book (book_id, person_id, name, created) " +
+                "select 1000 + i, 1000 + 1 + i % " + PEOPLE + ", 'Book \"' || i || '\" of the catalog', " +
+                "date '1700-01-01' + (i % 110000) from generate_series(1, " + BOOKS + ") i");
+        jdbc.execute("vacuum analyze person");
+        jdbc.execute("vacuum analyze book");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataSource.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKS)
+    public long books() {
+        return export(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKS)
+    public long people() {
+        return export(false);
+    }
+
+    private long export(boolean books) {
+        return transaction.execute(status -> {
+            try (CatalogExportWriter writer = CatalogExportWriter.create(CatalogFormat.of(format), out,
+                    objectMapper.getFactory())) {
+                if (books) {
+                    exportDAO.exportBooks(writer);
+                } else {
+                    exportDAO.exportPeople(writer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.count;
+        });
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.galeev.springcourse.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import liquibase.integration.spring.SpringLiquibase;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.galeev.springcourse.dao.CatalogImportDAO;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CatalogImportDAO} loading 200k new books per invocation into an embedded PostgreSQL, in rows per
+ * second. The body is generated while it is read, like a request body. {@code jdbcBatch} inserts the same
+ * rows with JDBC batches of 1000 and rewritten batched inserts, what the {@code /batch} endpoints do at
+ * best through Hibernate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+    private static final int PEOPLE = 1000;
+    private static final int ROWS = 200_000;
+
+    private EmbeddedPostgres postgres;
+    private HikariDataSource dataSource;
+    private CatalogImportDAO importDAO;
+    private TransactionTemplate transaction;
+    private JdbcTemplate jdbc;
+    // keeps the book names of every invocation unique
+    private int run;
+
+    @Setup
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        config.setMaximumPoolSize(2);
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        dataSource = new HikariDataSource(config);
+
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:db/changelog/db.changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.afterPropertiesSet();
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("insert into person (person_id, name, age, email) select 1000 + i, 'Person ' || i, 30, " +
+                "'person' || i || '@mail.com' from generate_series(1, " + PEOPLE + ") i");
+
+        importDAO = new CatalogImportDAO(dataSource, new ObjectMapper(), 1000);
+        transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataSource.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public BatchReportDTO copyCsv() {
+        return copy(CatalogFormat.CSV);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public BatchReportDTO copyNdjson() {
+        return copy(CatalogFormat.NDJSON);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int jdbcBatch() {
+        int prefix = run++;
+        List<Object[]> batch = new ArrayList<>(1000);
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(new Object[]{1001 + i % PEOPLE, "Book " + prefix + "-" + i, Date.valueOf("2001-02-03")});
+            if (batch.size() == 1000 || i == ROWS - 1) {
+                jdbc.batchUpdate("insert into book (person_id, name, created) values (?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+        return ROWS;
+    }
+
+    private BatchReportDTO copy(CatalogFormat format) {
+        InputStream body = new GeneratedBody(format, run++);
+        BatchReportDTO report = transaction.execute(status -> {
+            try {
+                return importDAO.importBooks(body, format, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (report.getInserted() != ROWS) {
+            throw new IllegalStateException("Only " + report + " were imported");
+        }
+        return report;
+    }
+
+    /**
+     * {@code ROWS} books as CSV or NDJSON, each line made when the previous one has been read.
+     */
+    private static final class GeneratedBody extends InputStream {
+        private final CatalogFormat format;
+        private final int prefix;
+        private byte[] line;
+        private int position;
+        private int next = -1;
+
+        GeneratedBody(CatalogFormat format, int prefix) {
+            this.format = format;
+            this.prefix = prefix;
+            this.line = format == CatalogFormat.CSV
+                    ? "person_id,name,created\n".getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == line.length && !nextLine()) {
+                return -1;
+            }
+            int count = Math.min(len, line.length - position);
+            System.arraycopy(line, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean nextLine() {
+            if (++next == ROWS) {
+                return false;
+            }
+            int personId = 1001 + next % PEOPLE;
+            String name = "Book " + prefix + "-" + next;
+            String text = format == CatalogFormat.CSV
+                    ? personId + "," + name + ",2001-02-03\n"
+                    : "{\"personId\":" + personId + ",\"name\":\"" + name + "\",\"created\":\"2001-02-03\"}\n";
+            line = text.getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+    }
+}
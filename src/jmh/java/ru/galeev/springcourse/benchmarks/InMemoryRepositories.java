@@ -0,0 +1,105 @@
+package ru.galeev.springcourse.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.domain.Pageable;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+import ru.galeev.springcourse.util.Convert;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map-backed stand-ins for the Spring Data repositories, so the services can be measured without
+ * a database. Only the methods the services call are implemented.
+ */
+final class InMemoryRepositories {
+    private InMemoryRepositories() {
+    }
+
+    /**
+     * A {@link CatalogSnapshot} that is switched off, the services read through their repositories.
+     */
+    static CatalogSnapshot noSnapshot() {
+        return new CatalogSnapshot(null, null, null, new SimpleMeterRegistry(), false, 0, 0);
+    }
+
+    static PeopleRepository people(List<Person> people) {
+        Map<Integer, Person> table = new ConcurrentHashMap<>();
+        for (Person person : people) {
+            table.put(person.getId(), person);
+        }
+        return (PeopleRepository) Proxy.newProxyInstance(PeopleRepository.class.getClassLoader(),
+                new Class<?>[]{PeopleRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findAll":
+                            return new ArrayList<>(table.values());
+                        case "findById":
+                            return Optional.ofNullable(table.get((Integer) args[0]));
+                        case "existsById":
+                            return table.containsKey((Integer) args[0]);
+                        case "save":
+                            Person person = (Person) args[0];
+                            table.put(person.getId(), person);
+                            return person;
+                        case "deleteById":
+                            table.remove((Integer) args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    static BooksRepository books(List<Book> books) {
+        Map<Integer, Book> table = new ConcurrentHashMap<>();
+        for (Book book : books) {
+            table.put(book.getId(), book);
+        }
+        return (BooksRepository) Proxy.newProxyInstance(BooksRepository.class.getClassLoader(),
+                new Class<?>[]{BooksRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findById":
+                            return Optional.ofNullable(table.get((Integer) args[0]));
+                        case "findByPersonId":
+                            int personId = (Integer) args[0];
+                            List<Book> owned = new ArrayList<>();
+                            for (Book book : table.values()) {
+                                if (book.getPerson().getId() == personId) {
+                                    owned.add(book);
+                                }
+                            }
+                            return owned;
+                        case "findDTOPageByCreatedBetween":
+                            Calendar from = (Calendar) args[0];
+                            Calendar to = (Calendar) args[1];
+                            List<Book> inRange = new ArrayList<>();
+                            for (Book book : table.values()) {
+                                if (!book.getCreated().before(from) && !book.getCreated().after(to)) {
+                                    inRange.add(book);
+                                }
+                            }
+                            inRange.sort(Comparator.comparing(Book::getCreated).thenComparingInt(Book::getId));
+                            List<BookDTO> page = new ArrayList<>();
+                            for (Book book : inRange.subList(0, Math.min(inRange.size(), ((Pageable) args[2]).getPageSize()))) {
+                                page.add(Convert.convertToBookDTO(book));
+                            }
+                            return page;
+                        case "save":
+                            Book book = (Book) args[0];
+                            table.put(book.getId(), book);
+                            return book;
+                        case "deleteById":
+                            table.remove((Integer) args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,58 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import ru.galeev.springcourse.util.ExceptionsHandler;
+import ru.galeev.springcourse.util.PersonErrorResponse;
+import ru.galeev.springcourse.util.PersonNotFoundException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 404 from the throw to the handler's response, with the stackless {@link PersonNotFoundException}
+ * against an exception that fills in its stack trace as it used to. {@code depth} is the number of frames
+ * between controller and throw site; a request through Tomcat, the filters, the dispatcher and the
+ * transactional proxies is well over a hundred.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotFoundBenchmark {
+    @Param({"20", "150"})
+    private int depth;
+
+    private final ExceptionsHandler handler = new ExceptionsHandler("1");
+
+    @Benchmark
+    public ResponseEntity<PersonErrorResponse> stackless() {
+        try {
+            throwAt(depth, true);
+            return null;
+        } catch (RuntimeException e) {
+            return handler.notFoundHandler(e);
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<PersonErrorResponse> withStackTrace() {
+        try {
+            throwAt(depth, false);
+            return null;
+        } catch (RuntimeException e) {
+            return handler.notFoundHandler(e);
+        }
+    }
+
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static void throwAt(int depth, boolean stackless) {
+        if (depth > 0) {
+            throwAt(depth - 1, stackless);
+            return;
+        }
+        String message = "Person with id = " + depth + " wasn't found!";
+        throw stackless ? new PersonNotFoundException(message) : new RuntimeException(message);
+    }
+}
@@ -0,0 +1,141 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.hibernate.jpa.QueryHints;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.util.Convert;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity reads converted by {@link Convert} against the {@code select new} projections, over the real
+ * repositories on an in-memory H2 database. Each call runs in its own persistence context, as a
+ * request does. Compare {@code gc.alloc.rate.norm} for the bytes allocated per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+    private static final int PEOPLE = 1000;
+    private static final int BOOKS = 10000;
+    private static final int PAGE = 100;
+
+    private final Calendar from = new GregorianCalendar(1900, Calendar.JANUARY, 1);
+    private final Calendar to = new GregorianCalendar(2000, Calendar.JANUARY, 1);
+
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private EntityManager shared;
+    private BooksService booksService;
+    private int personId;
+
+    @Setup
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:projection;DB_CLOSE_DELAY=-1");
+        Properties properties = new Properties();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        properties.put("hibernate.generate_statistics", "false");
+
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("ru.galeev.springcourse.models");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+
+        List<Person> people = TestData.people(PEOPLE);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        // the schema comes from the entities, the index from create-book-indexes.yml
+        entityManager.createNativeQuery("create index book_created_id_idx on Book (created, book_id)").executeUpdate();
+        for (Person person : people) {
+            person.setId(0);
+            entityManager.persist(person);
+        }
+        for (Book book : TestData.books(people, BOOKS)) {
+            book.setId(0);
+            entityManager.persist(book);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        personId = people.get(PEOPLE / 2).getId();
+
+        shared = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        booksService = new BooksService(new JpaRepositoryFactory(shared).getRepository(BooksRepository.class),
+                InMemoryRepositories.noSnapshot());
+    }
+
+    @TearDown
+    public void tearDown() {
+        factoryBean.destroy();
+    }
+
+    /**
+     * The books of the person as entities, converted afterwards: what {@code findDTOsByPersonIdIfExists}
+     * replaced.
+     */
+    @Benchmark
+    public List<BookDTO> booksOfPersonEntities() {
+        List<Book> books = new ArrayList<>();
+        for (Object[] row : shared.createQuery("select p.id, b from Person p left join Book b " +
+                        "on b.person.id = p.id where p.id = :personId order by b.id", Object[].class)
+                .setParameter("personId", personId)
+                .getResultList()) {
+            if (row[1] != null) {
+                books.add((Book) row[1]);
+            }
+        }
+        return Convert.convertToBookDTOs(books);
+    }
+
+    @Benchmark
+    public List<BookDTO> booksOfPersonProjection() {
+        return booksService.findDTOsByPersonIdIfExists(personId).get();
+    }
+
+    /**
+     * The first range page as read-only entities, converted afterwards: what
+     * {@code findDTOPageByCreatedDateBetween} replaced.
+     */
+    @Benchmark
+    public CursorPage<BookDTO> rangePageEntities() {
+        List<Book> rows = shared.createQuery("select b from Book b where b.created between :from and :to " +
+                        "order by b.created, b.id", Book.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .setMaxResults(PAGE + 1)
+                .getResultList();
+        return CursorPage.of(rows, PAGE, book -> String.format("%tF:%d", book.getCreated(), book.getId()))
+                .map(Convert::convertToBookDTO);
+    }
+
+    @Benchmark
+    public CursorPage<BookDTO> rangePageProjection() {
+        return booksService.findDTOPageByCreatedDateBetween(from, to, null, PAGE);
+    }
+}
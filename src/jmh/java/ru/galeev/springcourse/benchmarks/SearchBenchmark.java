@@ -0,0 +1,143 @@
+package ru.galeev.springcourse.benchmarks;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import liquibase.integration.spring.SpringLiquibase;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+import ru.galeev.springcourse.services.PeopleService;
+
+import javax.persistence.EntityManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First page of {@code /api/books/search} and {@code /api/people/search} over 2M books and 1M people in an
+ * embedded PostgreSQL with the schema from the Liquibase changelog. {@code indexed=false} turns bitmap
+ * scans off for the session, which is what the search costs without the trigram indexes.
+ * <p>
+ * The queries: {@code zanzibar} is in one row in 10000, {@code island} in about one in twenty,
+ * {@code Tr} is a prefix and {@code qxqx} matches nothing. The database is generated once into
+ * {@code target/search-benchmark-pg} and reused by the following forks and runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    private static final int PEOPLE = 1_000_000;
+    private static final int BOOKS = 2_000_000;
+    private static final int PAGE = 20;
+    private static final String WORDS = "'{island,treasure,quantum,metal,pirate,corsair,captain,history,dark,elves," +
+            "ring,power,sorcery,mage,physics,alloy,comics,avengers,reporter,school,math,garden,river,mountain," +
+            "winter,summer,ocean,forest,city,empire,secret,journey,shadow,light,stone,glass,silver,golden,iron," +
+            "storm,night,morning,letters,songs,tales,war,peace,dream,memory,voyage}'::text[]";
+
+    @Param({"zanzibar", "island", "Tr", "qxqx"})
+    private String q;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private EmbeddedPostgres postgres;
+    private HikariDataSource dataSource;
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private BooksService booksService;
+    private PeopleService peopleService;
+
+    @Setup
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.builder()
+                .setDataDirectory(new File("target/search-benchmark-pg"))
+                .setCleanDataDirectory(false)
+                .start();
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        config.setMaximumPoolSize(2);
+        if (!indexed) {
+            config.setConnectionInitSql("set enable_bitmapscan = off");
+        }
+        dataSource = new HikariDataSource(config);
+        generate();
+
+        Properties properties = new Properties();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("ru.galeev.springcourse.models");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+
+        EntityManager shared = SharedEntityManagerCreator.createSharedEntityManager(factoryBean.getObject());
+        JpaRepositoryFactory repositories = new JpaRepositoryFactory(shared);
+        CatalogSnapshot snapshot = InMemoryRepositories.noSnapshot();
+        booksService = new BooksService(repositories.getRepository(BooksRepository.class), snapshot);
+        peopleService = new PeopleService(repositories.getRepository(PeopleRepository.class),
+                repositories.getRepository(BooksRepository.class), snapshot);
+    }
+
+    private void generate() throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:db/changelog/db.changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.afterPropertiesSet();
+
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        if (jdbc.queryForObject("select count(*) from person", Long.class) >= PEOPLE) {
+            return;
+        }
+        jdbc.execute("insert into person (person_id, name, age, email) " +
+                "select 1000 + i, initcap(w[1 + i % 50]) || ' ' || initcap(w[1 + i / 50 % 50]) || " +
+                "case when i % 10000 = 0 then ' Zanzibar' else '' end, 18 + i % 60, " +
+                "w[1 + i * 7 % 50] || '.' || i || '@' || w[1 + i * 13 % 50] || '.com' " +
+                "from generate_series(1, " + PEOPLE + ") i, (select " + WORDS + " w) words");
+        jdbc.execute("insert into book (book_id, person_id, name, created) " +
+                "select 1000 + i, 1000 + 1 + i % " + PEOPLE + ", initcap(w[1 + i * 7 % 50]) || ' ' || " +
+                "w[1 + i * 13 % 50] || ' ' || w[1 + i / 50 % 50] || ' ' || i || " +
+                "case when i % 10000 = 0 then ' zanzibar' else '' end, " +
+                "date '1700-01-01' + (i % 110000) " +
+                "from generate_series(1, " + BOOKS + ") i, (select " + WORDS + " w) words");
+        jdbc.execute("vacuum analyze person");
+        jdbc.execute("vacuum analyze book");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        factoryBean.destroy();
+        dataSource.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public CursorPage<BookDTO> searchBooks() {
+        return booksService.search(q, null, PAGE);
+    }
+
+    @Benchmark
+    public CursorPage<PersonDTO> searchPeople() {
+        return peopleService.search(q, null, PAGE);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.galeev.springcourse.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.PersonDTO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Jackson serialisation of the list payloads in every format the MVC converters offer, configured the
+ * same way, plain and gzipped as {@code CompressionFilter} does it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"10", "1000"})
+    private int size;
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    private ObjectMapper objectMapper;
+
+    private List<PersonDTO> people;
+    private List<BookDTO> books;
+
+    @Setup
+    public void setUp() {
+        objectMapper = objectMapper(format);
+        people = TestData.personDTOs(size);
+        books = TestData.bookDTOs(size);
+    }
+
+    private static ObjectMapper objectMapper(String format) {
+        switch (format) {
+            case "smile":
+                return Jackson2ObjectMapperBuilder.smile().build();
+            case "cbor":
+                return Jackson2ObjectMapperBuilder.cbor().build();
+            default:
+                return Jackson2ObjectMapperBuilder.json().build();
+        }
+    }
+
+    @Benchmark
+    public byte[] writePeople() throws IOException {
+        return objectMapper.writeValueAsBytes(people);
+    }
+
+    @Benchmark
+    public byte[] writeBooks() throws IOException {
+        return objectMapper.writeValueAsBytes(books);
+    }
+
+    @Benchmark
+    public byte[] writePeopleGzipped() throws IOException {
+        return gzipped(people);
+    }
+
+    @Benchmark
+    public byte[] writeBooksGzipped() throws IOException {
+        return gzipped(books);
+    }
+
+    private byte[] gzipped(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, 8192)) {
+            objectMapper.writeValue(gzip, value);
+        }
+        return bytes.toByteArray();
+    }
+}
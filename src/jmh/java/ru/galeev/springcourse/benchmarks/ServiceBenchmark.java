@@ -0,0 +1,69 @@
+package ru.galeev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.PeopleService;
+import ru.galeev.springcourse.util.Convert;
+
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service calls plus DTO mapping, as the controllers do them, over in-memory repositories.
+ * Measures the application-side overhead of a request without the database round-trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceBenchmark {
+    private static final int PEOPLE = 1000;
+    private static final int BOOKS = 10000;
+
+    private PeopleService peopleService;
+    private BooksService booksService;
+
+    @Setup
+    public void setUp() {
+        List<Person> people = TestData.people(PEOPLE);
+        BooksRepository booksRepository = InMemoryRepositories.books(TestData.books(people, BOOKS));
+        peopleService = new PeopleService(InMemoryRepositories.people(people), booksRepository,
+                InMemoryRepositories.noSnapshot());
+        booksService = new BooksService(booksRepository, InMemoryRepositories.noSnapshot());
+    }
+
+    @Benchmark
+    public Optional<Person> findPerson() {
+        return peopleService.findOne(PEOPLE / 2);
+    }
+
+    @Benchmark
+    public List<PersonDTO> findAllPeople() {
+        return Convert.convertToPersonDTOs(peopleService.findAll());
+    }
+
+    @Benchmark
+    public BookDTO findBook() {
+        return Convert.convertToBookDTO(booksService.findById(BOOKS / 2).get());
+    }
+
+    @Benchmark
+    public List<BookDTO> findBooksOfPerson() {
+        return Convert.convertToBookDTOs(booksService.findByPersonId(PEOPLE / 2));
+    }
+
+    @Benchmark
+    public CursorPage<BookDTO> findBooksInRange() {
+        return booksService.findDTOPageByCreatedDateBetween(
+                new GregorianCalendar(1950, 0, 1), new GregorianCalendar(1960, 0, 1), null, 100);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.galeev.springcourse.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+import ru.galeev.springcourse.services.PeopleService;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reads {@link CatalogSnapshot} takes over, served by the snapshot against the real repositories on
+ * an in-memory H2 database with the second-level cache off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    private static final int PEOPLE = 10000;
+    private static final int BOOKS = 100000;
+
+    @Param({"true", "false"})
+    private boolean snapshot;
+
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private PeopleService peopleService;
+    private BooksService booksService;
+
+    @Setup
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:snapshot;DB_CLOSE_DELAY=-1");
+        Properties properties = new Properties();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        properties.put("hibernate.jdbc.batch_size", "1000");
+
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("ru.galeev.springcourse.models");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+
+        List<Person> people = TestData.people(PEOPLE);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (Person person : people) {
+            person.setId(0);
+            entityManager.persist(person);
+        }
+        for (Book book : TestData.books(people, BOOKS)) {
+            book.setId(0);
+            entityManager.persist(book);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        EntityManager shared = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        JpaRepositoryFactory repositories = new JpaRepositoryFactory(shared);
+        PeopleRepository peopleRepository = repositories.getRepository(PeopleRepository.class);
+        BooksRepository booksRepository = repositories.getRepository(BooksRepository.class);
+        CatalogSnapshot catalogSnapshot = new CatalogSnapshot(peopleRepository, booksRepository,
+                new JpaTransactionManager(entityManagerFactory), new SimpleMeterRegistry(), snapshot, 1000, 60000);
+        catalogSnapshot.afterSingletonsInstantiated();
+        peopleService = new PeopleService(peopleRepository, booksRepository, catalogSnapshot);
+        booksService = new BooksService(booksRepository, catalogSnapshot);
+    }
+
+    @TearDown
+    public void tearDown() {
+        factoryBean.destroy();
+    }
+
+    @Benchmark
+    public Optional<Person> person() {
+        return peopleService.findOne(1 + ThreadLocalRandom.current().nextInt(PEOPLE));
+    }
+
+    @Benchmark
+    public Optional<Book> book() {
+        return booksService.findById(1 + ThreadLocalRandom.current().nextInt(BOOKS));
+    }
+
+    @Benchmark
+    public Optional<List<BookDTO>> booksOfPerson() {
+        return booksService.findDTOsByPersonIdIfExists(1 + ThreadLocalRandom.current().nextInt(PEOPLE));
+    }
+}
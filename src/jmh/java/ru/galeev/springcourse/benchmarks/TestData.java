@@ -0,0 +1,44 @@
+package ru.galeev.springcourse.benchmarks;
+
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.util.Convert;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+final class TestData {
+    private TestData() {
+    }
+
+    static List<Person> people(int size) {
+        List<Person> people = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            people.add(new Person(i, "Person " + i, 20 + i % 50, "person" + i + "@mail.com"));
+        }
+        return people;
+    }
+
+    /**
+     * Books spread over {@code people} owners, ten per person.
+     */
+    static List<Book> books(List<Person> people, int size) {
+        List<Book> books = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            Person person = people.get((i - 1) / 10 % people.size());
+            books.add(new Book(i, person, "Book " + i, new GregorianCalendar(1900 + i % 100, 0, 2)));
+        }
+        return books;
+    }
+
+    static List<PersonDTO> personDTOs(int size) {
+        return Convert.convertToPersonDTOs(people(size));
+    }
+
+    static List<BookDTO> bookDTOs(int size) {
+        return Convert.convertToBookDTOs(books(people(Math.max(1, size / 10)), size));
+    }
+}
@@ -1,7 +1,9 @@
 package ru.galeev.springcourse.config;
 
 import org.springframework.web.filter.CharacterEncodingFilter;
+import org.springframework.web.filter.DelegatingFilterProxy;
 import org.springframework.web.filter.HiddenHttpMethodFilter;
+import org.springframework.web.servlet.FrameworkServlet;
 import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatcherServletInitializer;
 
 import javax.servlet.DispatcherType;
@@ -29,13 +31,40 @@ public class MySpingMvcDispatcherServletInitializer extends AbstractAnnotationCo
     @Override
     public void onStartup(ServletContext aServletContext) throws ServletException {
         super.onStartup(aServletContext);
+        registerAdmissionFilter(aServletContext);
         registerCharacterEncodingFilter(aServletContext);
         registerHiddenFieldFilter(aServletContext);
+        registerCompressionFilter(aServletContext);
+    }
+
+    /**
+     * Requests refused here cost no more than the filter itself, see {@code AdmissionFilter}.
+     */
+    private void registerAdmissionFilter(ServletContext aContext) {
+        FilterRegistration.Dynamic admission = aContext.addFilter("admissionFilter", beanFilter("admissionFilter"));
+        admission.setAsyncSupported(true);
+        admission.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true, "/*");
+    }
+
+    private void registerCompressionFilter(ServletContext aContext) {
+        FilterRegistration.Dynamic compression = aContext.addFilter("compressionFilter", beanFilter("compressionFilter"));
+        compression.setAsyncSupported(true);
+        compression.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true, "/*");
+    }
+
+    /**
+     * The filter is a bean of the servlet context, there is no root context to look it up in.
+     */
+    private DelegatingFilterProxy beanFilter(String beanName) {
+        DelegatingFilterProxy filter = new DelegatingFilterProxy(beanName);
+        filter.setContextAttribute(FrameworkServlet.SERVLET_CONTEXT_PREFIX + getServletName());
+        return filter;
     }
 
     private void registerHiddenFieldFilter(ServletContext aContext) {
-        aContext.addFilter("hiddenHttpMethodFilter",
-                new HiddenHttpMethodFilter()).addMappingForUrlPatterns(null ,true, "/*");
+        FilterRegistration.Dynamic hiddenHttpMethod = aContext.addFilter("hiddenHttpMethodFilter", new HiddenHttpMethodFilter());
+        hiddenHttpMethod.setAsyncSupported(true);
+        hiddenHttpMethod.addMappingForUrlPatterns(null ,true, "/*");
     }
 
     private void registerCharacterEncodingFilter(ServletContext aContext) {
@@ -46,6 +75,7 @@ public class MySpingMvcDispatcherServletInitializer extends AbstractAnnotationCo
         characterEncodingFilter.setForceEncoding(true);
 
         FilterRegistration.Dynamic characterEncoding = aContext.addFilter("characterEncoding", characterEncodingFilter);
+        characterEncoding.setAsyncSupported(true);
         characterEncoding.addMappingForUrlPatterns(dispatcherTypes, true, "/*");
     }
 }
@@ -1,40 +1,87 @@
 package ru.galeev.springcourse.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.EhCache2Metrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import liquibase.integration.spring.SpringLiquibase;
-import org.modelmapper.ModelMapper;
+import net.sf.ehcache.CacheManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.HibernateMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.orm.hibernate5.HibernateTransactionManager;
 import org.springframework.orm.hibernate5.LocalSessionFactoryBean;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
-import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.validation.Validator;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ViewResolverRegistry;
-import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 import org.thymeleaf.spring5.SpringTemplateEngine;
 import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
 import org.thymeleaf.spring5.view.ThymeleafViewResolver;
+import ru.galeev.springcourse.util.AdaptiveConcurrencyLimit;
+import ru.galeev.springcourse.util.AdmissionFilter;
+import ru.galeev.springcourse.util.CompressionFilter;
+import ru.galeev.springcourse.util.ReplicaReadJpaDialect;
+import ru.galeev.springcourse.util.ReplicaRoutingDataSource;
+import ru.galeev.springcourse.util.RequestMetricsInterceptor;
+import ru.galeev.springcourse.util.RequestRoute;
+import ru.galeev.springcourse.util.StreamingHandlerAdapter;
+import ru.galeev.springcourse.util.StreamingResponseBodyHandler;
+import ru.galeev.springcourse.util.StatementCounter;
+import ru.galeev.springcourse.util.TimedJacksonConverter;
+import ru.galeev.springcourse.util.TokenBuckets;
+import ru.galeev.springcourse.util.VirtualThreadHandlerAdapter;
 
+import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @ComponentScan("ru.galeev.springcourse")
 @PropertySource("classpath:hibernate.properties")
 @EnableTransactionManagement
 @EnableJpaRepositories("ru.galeev.springcourse.repositories")
-@EnableWebMvc
-public class SpringConfig implements WebMvcConfigurer {
+public class SpringConfig extends WebMvcConfigurationSupport {
 
     private final ApplicationContext applicationContext;
     private final Environment env;
@@ -73,23 +120,288 @@ public class SpringConfig implements WebMvcConfigurer {
     }
 
     @Bean
-    public DataSource dataSource() {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+    public PrometheusMeterRegistry meterRegistry() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getName().startsWith("hikaricp.connections")) {
+                    return DistributionStatisticConfig.builder().percentilesHistogram(true).build().merge(config);
+                }
+                return config;
+            }
+        });
+        return registry;
+    }
+
+    @Bean
+    public RequestMetricsInterceptor requestMetricsInterceptor() {
+        return new RequestMetricsInterceptor(meterRegistry());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(requestMetricsInterceptor());
+    }
+
+    /**
+     * With {@code virtual_threads.enabled} on a JVM that has them, handler methods run on virtual threads,
+     * see {@link VirtualThreadHandlerAdapter}.
+     */
+    @Override
+    protected RequestMappingHandlerAdapter createRequestMappingHandlerAdapter() {
+        long streamTimeout = env.getRequiredProperty("stream.timeout", Long.class);
+        StreamingResponseBodyHandler streamingHandler = new StreamingResponseBodyHandler(streamTimeout, streamExecutor());
+        if (virtualThreadExecutor() != null) {
+            return new VirtualThreadHandlerAdapter(streamingHandler, streamTimeout);
+        }
+        return new StreamingHandlerAdapter(streamingHandler);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(env.getRequiredProperty("mvc.async_timeout", Long.class));
+        configurer.setTaskExecutor(virtualThreadExecutor() != null
+                ? new TaskExecutorAdapter(virtualThreadExecutor()) : asyncExecutor());
+        configurer.registerCallableInterceptors(requestMetricsInterceptor());
+    }
+
+    /**
+     * A virtual thread per task with {@code virtual_threads.enabled} on a JVM that has them, {@code null}
+     * otherwise. Shut down with the context: running requests finish, nothing new starts.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        return env.getRequiredProperty("virtual_threads.enabled", Boolean.class)
+                ? VirtualThreadHandlerAdapter.virtualThreadExecutor() : null;
+    }
+
+    /**
+     * Bounded pool for the {@code /api/async} endpoints. When the queue is full submissions are rejected,
+     * which the API answers with 503.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor asyncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("async-");
+        executor.setCorePoolSize(env.getRequiredProperty("async.core_pool_size", Integer.class));
+        executor.setMaxPoolSize(env.getRequiredProperty("async.max_pool_size", Integer.class));
+        executor.setQueueCapacity(env.getRequiredProperty("async.queue_capacity", Integer.class));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        ExecutorServiceMetrics.monitor(meterRegistry(), executor.getThreadPoolExecutor(), "async");
+        return executor;
+    }
+
+    /**
+     * Writes streaming response bodies, see {@link StreamingResponseBodyHandler}: virtual threads when they
+     * are on, otherwise a pool of its own, so long streams don't take the {@link #asyncExecutor()} threads.
+     */
+    @Bean
+    public AsyncTaskExecutor streamExecutor() {
+        if (virtualThreadExecutor() != null) {
+            return new TaskExecutorAdapter(virtualThreadExecutor());
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("stream-");
+        executor.setCorePoolSize(env.getRequiredProperty("stream.pool_size", Integer.class));
+        executor.setMaxPoolSize(env.getRequiredProperty("stream.pool_size", Integer.class));
+        executor.setQueueCapacity(env.getRequiredProperty("stream.queue_capacity", Integer.class));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        ExecutorServiceMetrics.monitor(meterRegistry(), executor.getThreadPoolExecutor(), "stream");
+        return executor;
+    }
+
+    /**
+     * {@code Cache-Control} of the single person and book responses and of a person's book list. They all
+     * carry an ETag, so with {@code http_cache.max_age=0} clients and proxies keep them but revalidate
+     * every time, and an unchanged resource costs a 304 without a body.
+     */
+    @Bean
+    public CacheControl resourceCacheControl() {
+        int maxAge = env.getRequiredProperty("http_cache.max_age", Integer.class);
+        int sharedMaxAge = env.getRequiredProperty("http_cache.s_maxage", Integer.class);
+        CacheControl cacheControl = maxAge > 0 ? CacheControl.maxAge(maxAge, TimeUnit.SECONDS) : CacheControl.noCache();
+        if (env.getRequiredProperty("http_cache.public", Boolean.class)) {
+            cacheControl.cachePublic();
+            if (sharedMaxAge >= 0) {
+                cacheControl.sMaxAge(sharedMaxAge, TimeUnit.SECONDS);
+            }
+        } else {
+            cacheControl.cachePrivate();
+        }
+        return cacheControl;
+    }
+
+    /**
+     * Registered in {@link MySpingMvcDispatcherServletInitializer} through a {@code DelegatingFilterProxy}.
+     */
+    @Bean
+    public CompressionFilter compressionFilter() {
+        return new CompressionFilter(env.getRequiredProperty("compression.min_size", Integer.class),
+                MediaType.parseMediaTypes(env.getRequiredProperty("compression.mime_types")));
+    }
+
+    /**
+     * Registered in {@link MySpingMvcDispatcherServletInitializer} through a {@code DelegatingFilterProxy},
+     * before every other filter.
+     */
+    @Bean
+    public AdmissionFilter admissionFilter() {
+        int maxClients = env.getRequiredProperty("rate_limit.max_clients", Integer.class);
+        TokenBuckets clientBuckets = null;
+        Map<RequestRoute, TokenBuckets> routeBuckets = new LinkedHashMap<>();
+        if (env.getRequiredProperty("rate_limit.enabled", Boolean.class)) {
+            clientBuckets = new TokenBuckets(env.getRequiredProperty("rate_limit.rate", Double.class),
+                    env.getRequiredProperty("rate_limit.burst", Integer.class), maxClients);
+            for (String rule : env.getRequiredProperty("rate_limit.routes").split(",")) {
+                if (!rule.trim().isEmpty()) {
+                    // "GET /api/people 5/10": the route, then rate and burst
+                    int space = rule.trim().lastIndexOf(' ');
+                    String[] limit = rule.trim().substring(space + 1).split("/");
+                    routeBuckets.put(RequestRoute.parse(rule.trim().substring(0, space)),
+                            new TokenBuckets(Double.parseDouble(limit[0]), Integer.parseInt(limit[1]), maxClients));
+                }
+            }
+        }
+        Map<RequestRoute, AdaptiveConcurrencyLimit> concurrencyLimits = new LinkedHashMap<>();
+        if (env.getRequiredProperty("concurrency_limit.enabled", Boolean.class)) {
+            for (String route : env.getRequiredProperty("concurrency_limit.routes").split(",")) {
+                if (!route.trim().isEmpty()) {
+                    concurrencyLimits.put(RequestRoute.parse(route), new AdaptiveConcurrencyLimit(
+                            env.getRequiredProperty("concurrency_limit.initial", Integer.class),
+                            env.getRequiredProperty("concurrency_limit.min", Integer.class),
+                            env.getRequiredProperty("concurrency_limit.max", Integer.class),
+                            env.getRequiredProperty("concurrency_limit.tolerance", Double.class),
+                            TimeUnit.MILLISECONDS.toNanos(env.getRequiredProperty("concurrency_limit.probe_interval", Long.class))));
+                }
+            }
+            // long exports and imports hold a connection each: a cap below the pool, the same minimum and
+            // maximum keep the limit from moving
+            int fixed = env.getRequiredProperty("concurrency_limit.fixed", Integer.class);
+            if (fixed >= env.getRequiredProperty("hikari.maximum_pool_size", Integer.class)) {
+                throw new IllegalStateException("concurrency_limit.fixed should be below hikari.maximum_pool_size");
+            }
+            for (String route : env.getRequiredProperty("concurrency_limit.fixed_routes").split(",")) {
+                if (!route.trim().isEmpty()) {
+                    concurrencyLimits.put(RequestRoute.parse(route), new AdaptiveConcurrencyLimit(fixed, fixed, fixed, 1, 0));
+                }
+            }
+        }
+        return new AdmissionFilter(clientBuckets, routeBuckets, concurrencyLimits,
+                env.getRequiredProperty("concurrency_limit.retry_after"), objectMapper(), meterRegistry());
+    }
 
-        dataSource.setDriverClassName(env.getRequiredProperty("hibernate.driver_class"));
-        dataSource.setUrl(env.getRequiredProperty("hibernate.connection.url"));
-        dataSource.setUsername(env.getRequiredProperty("hibernate.connection.username"));
-        dataSource.setPassword(env.getRequiredProperty("hibernate.connection.password"));
+    /**
+     * Every Jackson converter, JSON and the Smile and CBOR ones registered because their dataformats are on
+     * the classpath, is replaced by a {@link TimedJacksonConverter} with the same media types.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i) instanceof AbstractJackson2HttpMessageConverter) {
+                AbstractJackson2HttpMessageConverter converter = (AbstractJackson2HttpMessageConverter) converters.get(i);
+                converters.set(i, new TimedJacksonConverter(converter.getObjectMapper(),
+                        converter.getSupportedMediaTypes(), meterRegistry()));
+            }
+        }
+    }
 
+    /**
+     * The primary, or with {@code datasource.replica_urls} set the {@link #routingDataSource()} behind a lazy
+     * proxy, so the connection is only chosen once the transaction, read-only or not, is known.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource() {
+        ReplicaRoutingDataSource routingDataSource = routingDataSource();
+        if (routingDataSource == null) {
+            return primaryDataSource();
+        }
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy();
+        dataSource.setTargetDataSource(routingDataSource);
+        // known up front, otherwise the proxy borrows a connection at startup to find out
+        dataSource.setDefaultAutoCommit(true);
+        dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
         return dataSource;
     }
 
+    /**
+     * Writes, and with replicas also what Liquibase does.
+     */
+    @Bean
+    public HikariDataSource primaryDataSource() {
+        return new HikariDataSource(poolConfig(env.getRequiredProperty("hikari.pool_name"), env.getRequiredProperty("datasource.url")));
+    }
+
+    /**
+     * Read-only transactions on the replicas, {@code null} when none are configured.
+     */
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource() {
+        List<String> replicaUrls = new ArrayList<>();
+        for (String url : env.getRequiredProperty("datasource.replica_urls").split(",")) {
+            if (!url.trim().isEmpty()) {
+                replicaUrls.add(url.trim());
+            }
+        }
+        if (replicaUrls.isEmpty()) {
+            return null;
+        }
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariConfig config = poolConfig(env.getRequiredProperty("hikari.pool_name") + "-replica-" + i, replicaUrls.get(i));
+            config.setReadOnly(true);
+            // a replica that is down at startup is skipped, it doesn't stop the application
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new HikariDataSource(config));
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource(), replicas,
+                ReplicaRoutingDataSource.Balancing.valueOf(env.getRequiredProperty("datasource.replica_balancing").toUpperCase()),
+                env.getRequiredProperty("datasource.replica_check_interval", Long.class));
+    }
+
+    private HikariConfig poolConfig(String poolName, String url) {
+        HikariConfig config = new HikariConfig();
+
+        config.setDriverClassName(env.getRequiredProperty("datasource.driver_class"));
+        config.setJdbcUrl(url);
+        config.setUsername(env.getRequiredProperty("datasource.username"));
+        config.setPassword(env.getRequiredProperty("datasource.password"));
+
+        config.setPoolName(poolName);
+        config.setMinimumIdle(env.getRequiredProperty("hikari.minimum_idle", Integer.class));
+        config.setMaximumPoolSize(env.getRequiredProperty("hikari.maximum_pool_size", Integer.class));
+        config.setConnectionTimeout(env.getRequiredProperty("hikari.connection_timeout", Long.class));
+        config.setMaxLifetime(env.getRequiredProperty("hikari.max_lifetime", Long.class));
+        config.setLeakDetectionThreshold(env.getRequiredProperty("hikari.leak_detection_threshold", Long.class));
+
+        // server-side prepared statements are cached per connection by the PostgreSQL driver
+        config.addDataSourceProperty("prepareThreshold", env.getRequiredProperty("hikari.prepare_threshold"));
+        config.addDataSourceProperty("preparedStatementCacheQueries", env.getRequiredProperty("hikari.prepared_statement_cache_queries"));
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", env.getRequiredProperty("hikari.prepared_statement_cache_size_mib"));
+        // lets the driver send JDBC insert batches as multi-row INSERTs
+        config.addDataSourceProperty("reWriteBatchedInserts", env.getRequiredProperty("hikari.rewrite_batched_inserts"));
+
+        config.setMetricRegistry(meterRegistry());
+
+        return config;
+    }
+
 
     private Properties hibernateProperties() {
         Properties properties = new Properties();
         properties.put("hibernate.dialect", env.getRequiredProperty("hibernate.dialect"));
         properties.put("hibernate.show_sql", env.getRequiredProperty("hibernate.show_sql"));
         properties.put("hibernate.ddl-auto", env.getRequiredProperty("hibernate.ddl-auto"));
+        properties.put("hibernate.cache.use_second_level_cache", env.getRequiredProperty("hibernate.cache.use_second_level_cache"));
+        properties.put("hibernate.cache.use_query_cache", env.getRequiredProperty("hibernate.cache.use_query_cache"));
+        properties.put("hibernate.cache.region.factory_class", env.getRequiredProperty("hibernate.cache.region.factory_class"));
+        properties.put("hibernate.generate_statistics", env.getRequiredProperty("hibernate.generate_statistics"));
+        properties.put("hibernate.jdbc.batch_size", env.getRequiredProperty("hibernate.jdbc.batch_size"));
+        properties.put("hibernate.order_inserts", env.getRequiredProperty("hibernate.order_inserts"));
+        properties.put("hibernate.session_factory.statement_inspector", StatementCounter.class.getName());
 
         return properties;
     }
@@ -104,6 +416,9 @@ public class SpringConfig implements WebMvcConfigurer {
 //        return sessionFactory;
 //    }
 
+    /**
+     * With replicas, read-only transactions don't fill the Hibernate caches, see {@link ReplicaReadJpaDialect}.
+     */
     @Bean
     public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
         final LocalContainerEntityManagerFactoryBean em = new LocalContainerEntityManagerFactoryBean();
@@ -112,11 +427,31 @@ public class SpringConfig implements WebMvcConfigurer {
 
         final HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
         em.setJpaVendorAdapter(vendorAdapter);
+        if (routingDataSource() != null) {
+            em.setJpaDialect(new ReplicaReadJpaDialect());
+        }
         em.setJpaProperties(hibernateProperties());
 
         return em;
     }
 
+    /**
+     * Second-level and query cache hit/miss/put counts from Hibernate statistics, plus per-region
+     * size and eviction counts from Ehcache.
+     */
+    @Bean
+    public HibernateMetrics hibernateMetrics(EntityManagerFactory entityManagerFactory) {
+        HibernateMetrics hibernateMetrics = new HibernateMetrics(entityManagerFactory.unwrap(SessionFactory.class),
+                "main", Tags.empty());
+        hibernateMetrics.bindTo(meterRegistry());
+
+        CacheManager cacheManager = CacheManager.getInstance();
+        for (String cacheName : cacheManager.getCacheNames()) {
+            EhCache2Metrics.monitor(meterRegistry(), cacheManager.getEhcache(cacheName), Tags.empty());
+        }
+        return hibernateMetrics;
+    }
+
 //    @Bean
 //    public PlatformTransactionManager hibernateTransactionManager() {
 //        HibernateTransactionManager transactionManager = new HibernateTransactionManager();
@@ -134,15 +469,25 @@ public class SpringConfig implements WebMvcConfigurer {
     }
 
     @Bean
-    public ModelMapper modelMapper() {
-        return new ModelMapper();
+    public LocalValidatorFactoryBean validator() {
+        return new LocalValidatorFactoryBean();
+    }
+
+    @Override
+    public Validator getValidator() {
+        return validator();
+    }
+
+    @Bean
+    public ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().applicationContext(applicationContext).build();
     }
 
     @Bean
     public SpringLiquibase liquibase() {
         SpringLiquibase liquibase = new SpringLiquibase();
         liquibase.setChangeLog("classpath:db/changelog/db.changelog-master.yml");
-        liquibase.setDataSource(dataSource());
+        liquibase.setDataSource(primaryDataSource());
         return liquibase;
     }
 }
@@ -0,0 +1,146 @@
+package ru.galeev.springcourse.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.PeopleService;
+import ru.galeev.springcourse.util.*;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Async variants of the {@link BookController} endpoints. Service calls run on the bounded
+ * {@code asyncExecutor}, the container thread is released while they wait on the database. A full
+ * queue rejects the request with 503, a request that is not answered within {@code async.timeout}
+ * gets 503 too and its queued work is skipped.
+ */
+@RestController
+@RequestMapping("/api/async")
+@Slf4j
+public class AsyncBookController {
+    private final PeopleService peopleService;
+    private final BooksService bookService;
+    private final ObjectMapper objectMapper;
+    private final AsyncTaskExecutor executor;
+    private final long timeout;
+    private final int streamPageSize;
+
+    @Autowired
+    public AsyncBookController(PeopleService peopleService, BooksService bookService, ObjectMapper objectMapper,
+                               @Qualifier("asyncExecutor") AsyncTaskExecutor executor,
+                               @Value("${async.timeout}") long timeout,
+                               @Value("${async.stream_page_size}") int streamPageSize) {
+        this.peopleService = peopleService;
+        this.bookService = bookService;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+        this.timeout = timeout;
+        this.streamPageSize = streamPageSize;
+    }
+
+    @GetMapping("/people/{personId}/books")
+    public DeferredResult<List<BookDTO>> getAllBooksByPersonId(@PathVariable(value = "personId") int personId) {
+        return submit(() -> {
+            List<BookDTO> books = bookService.findDTOsByPersonIdIfExists(personId).orElseThrow(() ->
+                    new PersonNotFoundException("Person with id = " + personId + " wasn't found!"));
+            log.info("Person's with id = {} books:", personId);
+            return books;
+        });
+    }
+
+    @GetMapping("/books/{id}")
+    public DeferredResult<BookDTO> getBookByBookId(@PathVariable(value = "id") int id) {
+        return submit(() -> Convert.convertToBookDTO(bookService.findById(id)
+                .orElseThrow(() -> new BookNotFoundException("Book with id = " + id + " wasn't found!"))));
+    }
+
+    /**
+     * Streams every book in range as one JSON array, an empty range is an empty array. The first page is
+     * read before the response starts, so a failing query still gets an error status; the rest is read page
+     * by page with the keyset cursor and flushed to the client as it arrives, no transaction stays open
+     * between pages. The stream is written on the {@code streamExecutor}, {@code async.timeout} only
+     * bounds the first page.
+     */
+    @GetMapping("/books_range")
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> streamBooksInRange(@RequestParam @DateTimeFormat(pattern = "yyyy") Calendar from,
+                                                                                    @RequestParam @DateTimeFormat(pattern = "yyyy") Calendar to) {
+        return submit(() -> {
+            CursorPage<BookDTO> first = bookService.findDTOPageByCreatedDateBetween(from, to, null, streamPageSize);
+            if (log.isInfoEnabled()) {
+                log.info("Streaming books in range from {} to {} years", from.get(Calendar.YEAR), to.get(Calendar.YEAR));
+            }
+            StreamingResponseBody body = out -> {
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                    generator.writeStartArray();
+                    CursorPage<BookDTO> page = first;
+                    while (true) {
+                        for (BookDTO bookDTO : page.getItems()) {
+                            generator.writeObject(bookDTO);
+                        }
+                        generator.flush();
+                        if (page.getNext() == null) {
+                            break;
+                        }
+                        page = bookService.findDTOPageByCreatedDateBetween(from, to, page.getNext(), streamPageSize);
+                    }
+                    generator.writeEndArray();
+                }
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        });
+    }
+
+    @PostMapping("/people/{personId}/books")
+    public DeferredResult<ResponseEntity<BookDTO>> createBook(@PathVariable(value = "personId") int personId,
+                                                              @RequestBody BookDTO bookRequest) {
+        return submit(() -> {
+            Book book = Convert.convertToBook(bookRequest);
+            book.setPerson(peopleService.getReference(personId));
+            BookDTO comment;
+            try {
+                comment = Convert.convertToBookDTO(bookService.save(book));
+            } catch (DataIntegrityViolationException e) {
+                throw new BookNotCreatedException("Book wasn't created!");
+            }
+            log.info("Book {} created with personId = {}", bookRequest, personId);
+            return new ResponseEntity<>(comment, HttpStatus.CREATED);
+        });
+    }
+
+    /**
+     * Runs {@code work} on the executor. Work that is still queued when its request has timed out is
+     * dropped instead of hitting the database for nobody.
+     */
+    private <T> DeferredResult<T> submit(Supplier<T> work) {
+        DeferredResult<T> result = new DeferredResult<>(timeout);
+        CompletableFuture.supplyAsync(() -> result.isSetOrExpired() ? null : work.get(), executor)
+                .whenComplete((value, e) -> {
+                    if (e != null) {
+                        result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    } else {
+                        result.setResult(value);
+                    }
+                });
+        return result;
+    }
+}
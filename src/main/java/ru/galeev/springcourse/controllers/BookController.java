@@ -2,19 +2,30 @@ package ru.galeev.springcourse.controllers;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import ru.galeev.springcourse.dto.BatchReportDTO;
 import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.WriteStatusDTO;
 import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.services.BookWriteQueue;
 import ru.galeev.springcourse.services.BooksService;
 import ru.galeev.springcourse.services.PeopleService;
 import ru.galeev.springcourse.util.*;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api")
@@ -22,78 +33,166 @@ import java.util.stream.Collectors;
 public class BookController {
     private final PeopleService peopleService;
     private final BooksService bookService;
+    private final BatchImporter batchImporter;
+    private final BookWriteQueue bookWriteQueue;
+    private final CacheControl cacheControl;
 
     @Autowired
-    public BookController(PeopleService peopleService, BooksService bookService) {
+    public BookController(PeopleService peopleService, BooksService bookService, BatchImporter batchImporter,
+                          BookWriteQueue bookWriteQueue, CacheControl cacheControl) {
         this.peopleService = peopleService;
         this.bookService = bookService;
+        this.batchImporter = batchImporter;
+        this.bookWriteQueue = bookWriteQueue;
+        this.cacheControl = cacheControl;
     }
 
+    /**
+     * The list comes from the query cache and its ETag is a hash of the books, a client that already has
+     * this list gets 304 without a body.
+     */
     @GetMapping("/people/{personId}/books")
     public ResponseEntity<List<BookDTO>> getAllBooksByPersonId(@PathVariable(value = "personId") int personId) throws Exception {
-        if (!peopleService.exists(personId)) {
-            log.error("Person with id = {} wasn't found", personId);
-            throw new PersonNotFoundException("Person with id = " + personId + " wasn't found!");
-        }
+        List<BookDTO> books = bookService.findDTOsByPersonIdIfExists(personId).orElseThrow(() ->
+                new PersonNotFoundException("Person with id = " + personId + " wasn't found!"));
         log.info("Person's with id = {} books:", personId);
-        List<BookDTO> books = bookService.findByPersonId(personId).stream().map(Convert::convertToBookDTO).collect(Collectors.toList());
-        return new ResponseEntity<>(books, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(ETags.of(books)).cacheControl(cacheControl).body(books);
     }
 
 
     @GetMapping("/books/{id}")
     public ResponseEntity<BookDTO> getBookByBookId(@PathVariable(value = "id") int id) {
-        BookDTO bookDTO = Convert.convertToBookDTO(bookService.findById(id).orElseThrow(() -> new BookNotFoundException("Book with id = " + id + " wasn't found!")));
+        Book book = bookService.findById(id).orElseThrow(() -> new BookNotFoundException("Book with id = " + id + " wasn't found!"));
+        BookDTO bookDTO = Convert.convertToBookDTO(book);
         log.info("Getting book by id = {}: {}", id, bookDTO);
-        return new ResponseEntity<>(bookDTO, HttpStatus.OK);
+        return ResponseEntity.ok()
+                .eTag(ETags.of(book.getVersion()))
+                .lastModified(book.getUpdatedAt().getTimeInMillis())
+                .cacheControl(cacheControl)
+                .body(bookDTO);
+    }
+
+    @GetMapping("/books/search")
+    public CursorPage<BookDTO> searchBooks(@RequestParam("q") String q,
+                                           @RequestParam(value = "after", required = false) String after,
+                                           @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        CursorPage<BookDTO> books = bookService.search(q, after, CursorPage.clampLimit(limit));
+        log.info("Books matching '{}': {} books, next = {}", q, books.getItems().size(), books.getNext());
+        return books;
     }
 
     @GetMapping("/books_range")
-    public ResponseEntity<List<BookDTO>> getBooksInRange(@RequestParam @DateTimeFormat(pattern = "yyyy") Calendar from, @RequestParam @DateTimeFormat(pattern = "yyyy") Calendar to) {
-        List<BookDTO> booksDTO = bookService.findBooksByCreatedDateBetween(from, to).stream().map(Convert::convertToBookDTO).collect(Collectors.toList());
-        if (booksDTO.isEmpty()) {
-            log.error("There is no books in range from {} to {} years", from, to);
-            throw new BookNotFoundException("Books wasn't found");
+    public ResponseEntity<CursorPage<BookDTO>> getBooksInRange(@RequestParam @DateTimeFormat(pattern = "yyyy") Calendar from, @RequestParam @DateTimeFormat(pattern = "yyyy") Calendar to,
+                                                               @RequestParam(value = "after", required = false) String after,
+                                                               @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        CursorPage<BookDTO> booksDTO = bookService.findDTOPageByCreatedDateBetween(from, to, after, CursorPage.clampLimit(limit));
+        if (log.isInfoEnabled()) {
+            log.info("Books in range from {} to {} years: {} books, next = {}", from.get(Calendar.YEAR), to.get(Calendar.YEAR), booksDTO.getItems().size(), booksDTO.getNext());
         }
-        log.info("Books in range from {} to {} years: {}", from.get(Calendar.YEAR), to.get(Calendar.YEAR), booksDTO);
         return new ResponseEntity<>(booksDTO, HttpStatus.OK);
     }
 
     @PostMapping("/people/{personId}/books")
     public ResponseEntity<BookDTO> createBook(@PathVariable(value = "personId") int personId,
                                               @RequestBody BookDTO bookRequest) {
-        BookDTO comment = Convert.convertToBookDTO(peopleService.findOne(personId).map(personDTO -> {
-            bookRequest.setPerson(personDTO);
-            return bookService.save(Convert.convertToBook(bookRequest));
-        }).orElseThrow(() -> new BookNotCreatedException("Book wasn't created!")));
+        Book book = Convert.convertToBook(bookRequest);
+        book.setPerson(peopleService.getReference(personId));
+        BookDTO comment;
+        try {
+            comment = Convert.convertToBookDTO(bookService.save(book));
+        } catch (DataIntegrityViolationException e) {
+            throw new BookNotCreatedException("Book wasn't created!");
+        }
         log.info("Book {} created with personId = {}", bookRequest, personId);
         return new ResponseEntity<>(comment, HttpStatus.CREATED);
     }
 
+    /**
+     * {@link #createBook} for clients that send {@code Prefer: respond-async}: the book is only queued and
+     * inserted later together with others, see {@link BookWriteQueue}. Answers 202 with the tracking id and
+     * its status URL in {@code Location}, or 503 if the queue is full.
+     */
+    @PostMapping(value = "/people/{personId}/books", headers = "Prefer=respond-async")
+    public ResponseEntity<WriteStatusDTO> queueBook(@PathVariable(value = "personId") int personId,
+                                                    @RequestBody BookDTO bookRequest) {
+        if (!peopleService.exists(personId)) {
+            throw new PersonNotFoundException("Person with id = " + personId + " wasn't found!");
+        }
+        WriteStatusDTO status = bookWriteQueue.offer(personId, bookRequest);
+        log.info("Book {} queued with personId = {} as {}", bookRequest, personId, status.getId());
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/api/books/queued/{id}").buildAndExpand(status.getId()).toUri())
+                .header("Preference-Applied", "respond-async")
+                .body(status);
+    }
+
+    @GetMapping("/books/queued/{id}")
+    public WriteStatusDTO getQueuedBook(@PathVariable("id") String id) {
+        WriteStatusDTO status = bookWriteQueue.status(id);
+        if (status == null) {
+            throw new BookNotFoundException("Queued book " + id + " wasn't found!");
+        }
+        return status;
+    }
+
+    @PostMapping("/people/{personId}/books/batch")
+    public BatchReportDTO createBooksBatch(@PathVariable(value = "personId") int personId,
+                                           HttpServletRequest request) throws IOException {
+        log.info("Batch import of books for personId = {}", personId);
+        Person person = peopleService.getReference(personId);
+        return batchImporter.importArray(request.getInputStream(), BookDTO.class, batch -> {
+            List<Book> books = Convert.convertToBooks(batch);
+            for (Book book : books) {
+                book.setId(0);
+                book.setPerson(person);
+            }
+            bookService.saveAll(books);
+        });
+    }
+
+    /**
+     * Single-statement rename, the creation date is kept. With {@code If-Match} it only applies
+     * if the book is still at that version (412 otherwise) and the response carries the new ETag.
+     */
     @PutMapping("/books/{id}")
-    public ResponseEntity<BookDTO> updateBook(@PathVariable("id") int id, @RequestBody BookDTO bookRequest) {
-        BookDTO book = Convert.convertToBookDTO(bookService.findById(id).orElseThrow(() -> new BookNotFoundException("Book with id = " + id + " wasn't found")));
-        book.setName(bookRequest.getName());
-        book.setCreated(book.getCreated());
+    public ResponseEntity<BookDTO> updateBook(@PathVariable("id") int id, @RequestBody BookDTO bookRequest,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Integer version = ETags.parseIfMatch(ifMatch);
+        Book book = Convert.convertToBook(bookRequest);
+        int updated = version == null ? bookService.update(id, book) : bookService.update(id, book, version);
+        if (updated == 0) {
+            // the second query only runs on the failure path
+            if (version != null && bookService.findById(id).isPresent()) {
+                throw new OptimisticLockingFailureException("Book with id = " + id + " was changed since version " + version);
+            }
+            throw new BookNotFoundException("Book with id = " + id + " wasn't found");
+        }
         log.info("Book with id = {} was updated, new data: {}", id, bookRequest);
-        return new ResponseEntity<>(Convert.convertToBookDTO(bookService.save(Convert.convertToBook(book))), HttpStatus.OK);
+
+        // the stored creation date isn't read back, GET the book for it
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (version != null) {
+            response.eTag(ETags.of(version + 1));
+        }
+        return response.body(new BookDTO(id, bookRequest.getName(), null));
     }
 
     @DeleteMapping("/books/{id}")
     public ResponseEntity<HttpStatus> deleteBook(@PathVariable("id") int id) {
-        getBookByBookId(id);
-        bookService.deleteById(id);
+        if (bookService.deleteById(id) == 0) {
+            throw new BookNotFoundException("Book with id = " + id + " wasn't found!");
+        }
         log.info("Book with id = {} was removed", id);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
     @DeleteMapping("/people/{personId}/books")
     public ResponseEntity<List<Book>> deleteAllBooksOfPerson(@PathVariable(value = "personId") int personId) {
-        if (!peopleService.exists(personId)) {
-            log.error("Person with id = {} wasn't found!", personId);
+        // the existence check only costs a second query when nothing was deleted
+        if (bookService.deleteByPersonId(personId) == 0 && !peopleService.exists(personId)) {
             throw new PersonNotFoundException("Person with id = " + personId + " wasn't found!");
         }
-        bookService.deleteByPersonId(personId);
         log.info("Person with id = {} hasn't got books", personId);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
@@ -0,0 +1,70 @@
+package ru.galeev.springcourse.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.galeev.springcourse.dao.CatalogExportDAO;
+import ru.galeev.springcourse.util.CatalogExportWriter;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import java.io.UncheckedIOException;
+
+/**
+ * The whole catalog as NDJSON ({@code format=ndjson}, the default) or CSV, each export a single query
+ * streamed to the client row by row. Written on the {@code streamExecutor} with {@code stream.timeout},
+ * the request thread is released meanwhile. Gzipped by the compression filter when the client accepts it.
+ */
+@RestController
+@RequestMapping("/api/export")
+@Slf4j
+public class ExportController {
+    private final CatalogExportDAO exportDAO;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ExportController(CatalogExportDAO exportDAO, ObjectMapper objectMapper) {
+        this.exportDAO = exportDAO;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping("/books")
+    public ResponseEntity<StreamingResponseBody> exportBooks(@RequestParam(value = "format", defaultValue = "ndjson") String format) {
+        CatalogFormat exportFormat = CatalogFormat.of(format);
+        log.info("Exporting all books as {}", exportFormat);
+        return export(exportFormat, "books", out -> {
+            try (CatalogExportWriter writer = CatalogExportWriter.create(exportFormat, out, objectMapper.getFactory())) {
+                exportDAO.exportBooks(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @GetMapping("/people")
+    public ResponseEntity<StreamingResponseBody> exportPeople(@RequestParam(value = "format", defaultValue = "ndjson") String format) {
+        CatalogFormat exportFormat = CatalogFormat.of(format);
+        log.info("Exporting all people with their books as {}", exportFormat);
+        return export(exportFormat, "people", out -> {
+            try (CatalogExportWriter writer = CatalogExportWriter.create(exportFormat, out, objectMapper.getFactory())) {
+                exportDAO.exportPeople(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static ResponseEntity<StreamingResponseBody> export(CatalogFormat format, String name, StreamingResponseBody body) {
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + name + "." + format.name().toLowerCase() + "\"")
+                .body(body);
+    }
+}
@@ -0,0 +1,59 @@
+package ru.galeev.springcourse.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.services.CatalogImportService;
+import ru.galeev.springcourse.util.BadRequestException;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Bulk loads of NDJSON ({@code format=ndjson}, the default) or CSV with a header line, the formats of
+ * {@code /api/export}. A row whose unique key already exists is rejected, with {@code onConflict=update}
+ * the existing row is overwritten instead. The report has the first {@code import.max_errors} rejected
+ * rows with their reasons.
+ */
+@RestController
+@RequestMapping("/api/import")
+@Slf4j
+public class ImportController {
+    private final CatalogImportService importService;
+
+    @Autowired
+    public ImportController(CatalogImportService importService) {
+        this.importService = importService;
+    }
+
+    @PostMapping("/books")
+    public BatchReportDTO importBooks(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                      @RequestParam(value = "onConflict", defaultValue = "skip") String onConflict,
+                                      HttpServletRequest request) throws IOException {
+        log.info("Import of books as {}, on conflict {}", format, onConflict);
+        return importService.importBooks(request.getInputStream(), CatalogFormat.of(format), update(onConflict));
+    }
+
+    @PostMapping("/people")
+    public BatchReportDTO importPeople(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                       @RequestParam(value = "onConflict", defaultValue = "skip") String onConflict,
+                                       HttpServletRequest request) throws IOException {
+        log.info("Import of people as {}, on conflict {}", format, onConflict);
+        return importService.importPeople(request.getInputStream(), CatalogFormat.of(format), update(onConflict));
+    }
+
+    private static boolean update(String onConflict) {
+        if ("update".equals(onConflict)) {
+            return true;
+        }
+        if ("skip".equals(onConflict)) {
+            return false;
+        }
+        throw new BadRequestException("onConflict should be skip or update");
+    }
+}
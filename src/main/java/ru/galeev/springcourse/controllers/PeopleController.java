@@ -5,6 +5,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import ru.galeev.springcourse.dto.CursorPage;
 import ru.galeev.springcourse.models.Person;
 import ru.galeev.springcourse.services.PeopleService;
 
@@ -14,6 +15,8 @@ import javax.validation.Valid;
 @RequestMapping("/people")
 public class PeopleController {
 
+    private static final int PAGE_SIZE = 50;
+
     private final PeopleService peopleService;
     @Autowired
     public PeopleController(PeopleService peopleService) {
@@ -21,8 +24,10 @@ public class PeopleController {
     }
 
     @GetMapping()
-    public String index(Model model) {
-        model.addAttribute("people", peopleService.findAll());
+    public String index(Model model, @RequestParam(value = "after", defaultValue = "0") int after) {
+        CursorPage<Person> page = peopleService.findPage(after, PAGE_SIZE);
+        model.addAttribute("people", page.getItems());
+        model.addAttribute("nextCursor", page.getNext());
         return "people/index";
     }
 
@@ -1,19 +1,31 @@
 package ru.galeev.springcourse.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.dto.CursorPage;
 import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.dto.PersonWithBooksDTO;
+import ru.galeev.springcourse.models.Person;
 import ru.galeev.springcourse.services.PeopleService;
 import ru.galeev.springcourse.util.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.stream.Collectors;
 
 
 @RestController
@@ -21,23 +33,80 @@ import java.util.stream.Collectors;
 @Slf4j
 public class PeopleRestController {
     private final PeopleService peopleService;
+    private final ObjectMapper objectMapper;
+    private final BatchImporter batchImporter;
+    private final CacheControl cacheControl;
 
     @Autowired
-    public PeopleRestController(PeopleService peopleService) {
+    public PeopleRestController(PeopleService peopleService, ObjectMapper objectMapper, BatchImporter batchImporter,
+                                CacheControl cacheControl) {
         this.peopleService = peopleService;
+        this.objectMapper = objectMapper;
+        this.batchImporter = batchImporter;
+        this.cacheControl = cacheControl;
     }
 
     @GetMapping
     public List<PersonDTO> getPeople() {
         log.warn("Getting all people");
-        return peopleService.findAll().stream().map(Convert::convertToPersonDTO)
-                .collect(Collectors.toList());
+        return peopleService.findAllDTOs();
     }
 
+    @GetMapping(params = "limit")
+    public CursorPage<PersonDTO> getPeoplePage(@RequestParam(value = "after", defaultValue = "0") int after,
+                                               @RequestParam("limit") int limit) {
+        log.warn("Getting {} people after id = {}", limit, after);
+        return peopleService.findDTOPage(after, CursorPage.clampLimit(limit));
+    }
+
+    /**
+     * A page of people each with their books, in two queries instead of one per person.
+     */
+    @GetMapping("/with-books")
+    public CursorPage<PersonWithBooksDTO> getPeopleWithBooks(@RequestParam(value = "after", defaultValue = "0") int after,
+                                                             @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        log.warn("Getting {} people with books after id = {}", limit, after);
+        return peopleService.findPageWithBooks(after, CursorPage.clampLimit(limit));
+    }
+
+    @GetMapping("/stream")
+    public void streamPeople(HttpServletResponse response) throws IOException {
+        log.warn("Streaming all people");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            peopleService.forEachPerson(personDTO -> {
+                try {
+                    generator.writeObject(personDTO);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    @GetMapping("/search")
+    public CursorPage<PersonDTO> search(@RequestParam("q") String q,
+                                        @RequestParam(value = "after", required = false) String after,
+                                        @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        log.warn("Searching people matching '{}' after {}", q, after);
+        return peopleService.search(q, after, CursorPage.clampLimit(limit));
+    }
+
+    /**
+     * Served from the second-level cache. A request whose {@code If-None-Match} or
+     * {@code If-Modified-Since} still matches gets 304 without a body.
+     */
     @GetMapping("/{id}")
-    public PersonDTO getPerson(@PathVariable("id") int id) {
+    public ResponseEntity<PersonDTO> getPerson(@PathVariable("id") int id) {
         log.warn("Getting person by id = {}", id);
-        return Convert.convertToPersonDTO(peopleService.findOne(id).orElseThrow(() -> new PersonNotFoundException("Person with id = " + id + " wasn't found!")));
+        Person person = peopleService.findOne(id).orElseThrow(() -> new PersonNotFoundException("Person with id = " + id + " wasn't found!"));
+        return ResponseEntity.ok()
+                .eTag(ETags.of(person.getVersion()))
+                .lastModified(person.getUpdatedAt().getTimeInMillis())
+                .cacheControl(cacheControl)
+                .body(Convert.convertToPersonDTO(person));
     }
 
     @PostMapping
@@ -51,21 +120,53 @@ public class PeopleRestController {
         return ResponseEntity.ok(HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    public BatchReportDTO createBatch(HttpServletRequest request) throws IOException {
+        log.warn("Batch import of people");
+        return batchImporter.importArray(request.getInputStream(), PersonDTO.class, batch -> {
+            List<Person> people = Convert.convertToPeople(batch);
+            for (Person person : people) {
+                person.setId(0);
+            }
+            peopleService.saveAll(people);
+        });
+    }
+
+    /**
+     * Single-statement update. With {@code If-Match} it only applies if the person is still at that
+     * version (412 otherwise) and the response carries the new ETag.
+     */
     @PutMapping
-    public ResponseEntity<HttpStatus> update(@RequestBody @Valid PersonDTO personDTO, BindingResult bindingResult) {
+    public ResponseEntity<HttpStatus> update(@RequestBody @Valid PersonDTO personDTO, BindingResult bindingResult,
+                                             @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         ExceptionsHandler.handler(bindingResult);
+        Integer version = ETags.parseIfMatch(ifMatch);
+        int id = personDTO.getId();
 
         log.warn("Update person {} in DB", personDTO);
-        peopleService.save(Convert.convertToPerson(personDTO));
+        Person person = Convert.convertToPerson(personDTO);
+        int updated = version == null ? peopleService.update(id, person) : peopleService.update(id, person, version);
+        if (updated == 0) {
+            // the second query only runs on the failure path
+            if (version != null && peopleService.exists(id)) {
+                throw new OptimisticLockingFailureException("Person with id = " + id + " was changed since version " + version);
+            }
+            throw new PersonNotFoundException("Person with id = " + id + " wasn't found!");
+        }
         log.warn("Person {} was successfully updated", personDTO);
 
-        return ResponseEntity.ok(HttpStatus.OK);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (version != null) {
+            response.eTag(ETags.of(version + 1));
+        }
+        return response.body(HttpStatus.OK);
     }
 
     @DeleteMapping("/{id}")
     public String delete(@PathVariable int id) {
-        PersonDTO person = getPerson(id);
-        peopleService.delete(id);
+        if (peopleService.delete(id) == 0) {
+            throw new PersonNotFoundException("Person with id = " + id + " wasn't found!");
+        }
         log.warn("Person with id = {} was removed", id);
         return "Person was removed";
     }
@@ -0,0 +1,99 @@
+package ru.galeev.springcourse.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.galeev.springcourse.util.CatalogExportWriter;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Whole-catalog exports, each one query over a server-side cursor: PostgreSQL only fetches rows in
+ * batches of {@code export.fetch_size} inside a transaction, so every export runs in one, read-only and
+ * thus on a replica when there are any. Rows go from the {@code ResultSet} to the writer without entities
+ * or DTOs, a failing write ({@link UncheckedIOException}) ends the query.
+ * <p>
+ * The cursor and its connection stay open as long as the client takes to read the export. A client that
+ * stops reading leaves the transaction idle between fetches, PostgreSQL ends the session after
+ * {@code export.idle_timeout} ms and the pool replaces the connection.
+ */
+@Component
+public class CatalogExportDAO {
+    private static final String BOOKS = "select b.book_id, b.name, b.created, p.person_id, p.name, p.email " +
+            "from book b join person p on p.person_id = b.person_id order by b.book_id";
+    private static final String PEOPLE = "select p.person_id, p.name, p.age, p.email, b.book_id, b.name, b.created " +
+            "from person p left join book b on b.person_id = p.person_id order by p.person_id, b.book_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long idleTimeout;
+
+    @Autowired
+    public CatalogExportDAO(DataSource dataSource, @Value("${export.fetch_size}") int fetchSize,
+                            @Value("${export.idle_timeout}") long idleTimeout) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Every book with its owner, by book id.
+     */
+    @Transactional(readOnly = true)
+    public void exportBooks(CatalogExportWriter writer) throws IOException {
+        limitIdleTime();
+        writer.startBooks();
+        jdbcTemplate.query(BOOKS, (RowCallbackHandler) rs -> {
+            try {
+                writer.book(rs.getInt(1), rs.getString(2), rs.getDate(3), rs.getInt(4), rs.getString(5), rs.getString(6));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Every person, by id, with their books, people without books included.
+     */
+    @Transactional(readOnly = true)
+    public void exportPeople(CatalogExportWriter writer) throws IOException {
+        limitIdleTime();
+        writer.startPeople();
+        // the rows of a person are consecutive, a new person id closes the previous one
+        int[] current = {0};
+        boolean[] started = {false};
+        jdbcTemplate.query(PEOPLE, (RowCallbackHandler) rs -> {
+            try {
+                int personId = rs.getInt(1);
+                if (!started[0] || personId != current[0]) {
+                    if (started[0]) {
+                        writer.endPerson();
+                    }
+                    writer.person(personId, rs.getString(2), rs.getInt(3), rs.getString(4));
+                    current[0] = personId;
+                    started[0] = true;
+                }
+                int bookId = rs.getInt(5);
+                if (!rs.wasNull()) {
+                    writer.personBook(bookId, rs.getString(6), rs.getDate(7));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (started[0]) {
+            writer.endPerson();
+        }
+    }
+
+    private void limitIdleTime() {
+        if (idleTimeout > 0) {
+            // SET takes no bind parameters
+            jdbcTemplate.execute("set local idle_in_transaction_session_timeout = " + idleTimeout);
+        }
+    }
+}
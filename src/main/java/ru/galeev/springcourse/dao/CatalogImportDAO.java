@@ -0,0 +1,417 @@
+package ru.galeev.springcourse.dao;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.util.BadRequestException;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bulk imports through PostgreSQL {@code COPY FROM STDIN}. The body goes into a temporary staging table
+ * with every column as text: a CSV body is handed to {@code COPY} as is after its header line, an NDJSON
+ * body is turned into CSV line by line. Staged rows are then checked with a few set-based statements,
+ * every rejected row gets its reason, and the rest is merged into the table with one
+ * {@code INSERT ... ON CONFLICT}. A conflict on the unique key ({@code book.name}, {@code person.email}),
+ * in the table or with an earlier row of the same body, rejects the row, or with {@code update} overwrites
+ * the existing one. All of it is one transaction, memory stays the copy buffer whatever the body size.
+ * <p>
+ * Writes bypass Hibernate: the caller has to evict the second-level and query caches.
+ */
+@Component
+@Slf4j
+public class CatalogImportDAO {
+    // like Hibernate's pooled optimizer with allocationSize = 50, nextval gives the last id of a block of 50;
+    // taking one nextval per row would burn 50 ids for each
+    private static final int ID_BLOCK = 50;
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final int MAX_HEADER = 64 * 1024;
+    // characters of an NDJSON line, a person or a book is far shorter
+    private static final int MAX_LINE = 64 * 1024;
+
+    private static final Staging BOOKS = new Staging("import_book", new String[]{"person_id", "name", "created"},
+            new String[]{"personId", "name", "created"});
+    private static final Staging PEOPLE = new Staging("import_person", new String[]{"name", "age", "email"},
+            new String[]{"name", "age", "email"});
+
+    private static final String DATE = "'^\\s*[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])\\s*$'";
+    private static final String NUMBER = "'^\\s*[0-9]{1,9}\\s*$'";
+
+    private static final String BOOK_REASON = "case " +
+            "when s.name is null or btrim(s.name) = '' then 'name - Name should not be empty' " +
+            "when length(s.name) > 100 then 'name - Name should be at most 100 characters' " +
+            "when s.person_id is null or s.person_id !~ " + NUMBER + " then 'person_id - Person id should be a number' " +
+            "when s.created is null or s.created !~ " + DATE + " then 'created - Creation date should be yyyy-MM-dd' " +
+            // the day exists in that month; CASE only gets here for well-formed dates
+            "when substr(btrim(s.created), 9, 2)::int > extract(day from date_trunc('month', " +
+            "(substr(btrim(s.created), 1, 7) || '-01')::date) + interval '1 month - 1 day') " +
+            "then 'created - There is no such day' end";
+    // only the rejected rows are written, an update of every staged row would cost as much as the merge
+    private static final String CHECK_BOOKS = "update import_book s set reason = " + BOOK_REASON +
+            " where s.reason is null and " + BOOK_REASON + " is not null";
+    private static final String CHECK_BOOK_OWNERS = "update import_book s set reason = 'person_id - Person wasn''t found' " +
+            "where s.reason is null and not exists (select 1 from person p where p.person_id = btrim(s.person_id)::int)";
+    private static final String PERSON_REASON = "case " +
+            "when s.name is null or btrim(s.name) = '' then 'name - Name should not be empty' " +
+            "when s.age is null or s.age !~ " + NUMBER + " then 'age - Age should be a number, 0 or greater' " +
+            "when s.email is null or btrim(s.email) = '' then 'email - Email should not be empty' " +
+            "when length(s.email) > 100 then 'email - Email should be at most 100 characters' " +
+            "when s.email !~ '^[^@\\s]+@[^@\\s]+$' then 'email - Email should be valid' end";
+    private static final String CHECK_PEOPLE = "update import_person s set reason = " + PERSON_REASON +
+            " where s.reason is null and " + PERSON_REASON + " is not null";
+
+    private static final String MERGE_BOOKS = "insert into book (book_id, person_id, name, created) " +
+            "select ids.hi - " + (ID_BLOCK - 1) + " + v.n % " + ID_BLOCK + ", btrim(v.person_id)::int, v.name, btrim(v.created)::date " +
+            "from valid v join ids on ids.k = v.n / " + ID_BLOCK + " on conflict (name) ";
+    private static final String UPDATE_BOOKS = "do update set person_id = excluded.person_id, created = excluded.created, " +
+            "version = book.version + 1, updated_at = now()";
+    private static final String MERGE_PEOPLE = "insert into person (person_id, name, age, email) " +
+            "select ids.hi - " + (ID_BLOCK - 1) + " + v.n % " + ID_BLOCK + ", v.name, btrim(v.age)::int, v.email " +
+            "from valid v join ids on ids.k = v.n / " + ID_BLOCK + " on conflict (email) ";
+    private static final String UPDATE_PEOPLE = "do update set name = excluded.name, age = excluded.age, " +
+            "version = person.version + 1, updated_at = now()";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final JsonFactory jsonFactory;
+    private final int maxErrors;
+
+    @Autowired
+    public CatalogImportDAO(DataSource dataSource, ObjectMapper objectMapper, @Value("${import.max_errors}") int maxErrors) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jsonFactory = objectMapper.getFactory();
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Books with {@code person_id}, {@code name} and {@code created} (NDJSON: {@code personId}); other
+     * columns, an exported {@code id} among them, are ignored and the books get new ids.
+     */
+    @Transactional
+    public BatchReportDTO importBooks(InputStream body, CatalogFormat format, boolean update) throws IOException {
+        stage(body, format, BOOKS);
+        jdbcTemplate.update(CHECK_BOOKS);
+        jdbcTemplate.update(CHECK_BOOK_OWNERS);
+        return merge(BOOKS, "name", "'name - A book with this name already exists'", "book",
+                "book_seq", MERGE_BOOKS + (update ? UPDATE_BOOKS : "do nothing"), update);
+    }
+
+    /**
+     * People with {@code name}, {@code age} and {@code email}, other columns are ignored.
+     */
+    @Transactional
+    public BatchReportDTO importPeople(InputStream body, CatalogFormat format, boolean update) throws IOException {
+        stage(body, format, PEOPLE);
+        jdbcTemplate.update(CHECK_PEOPLE);
+        return merge(PEOPLE, "email", "'email - A person with this email already exists'", "person",
+                "person_seq", MERGE_PEOPLE + (update ? UPDATE_PEOPLE : "do nothing"), update);
+    }
+
+    private BatchReportDTO merge(Staging staging, String key, String existsReason, String table, String sequence,
+                                 String insert, boolean update) {
+        String stagingTable = staging.table;
+        jdbcTemplate.update("update " + stagingTable + " s set reason = '" + key + " - Repeats element ' || d.first " +
+                "from (select idx, first_value(idx) over (partition by " + key + " order by idx) as first " +
+                "from " + stagingTable + " where reason is null) d where s.idx = d.idx and d.idx <> d.first");
+        if (!update) {
+            jdbcTemplate.update("update " + stagingTable + " s set reason = " + existsReason + " where s.reason is null " +
+                    "and exists (select 1 from " + table + " t where t." + key + " = s." + key + ")");
+        }
+
+        int valid = jdbcTemplate.queryForObject("select count(*) from " + stagingTable + " where reason is null", Integer.class);
+        BatchReportDTO report = new BatchReportDTO();
+        if (valid > 0) {
+            Map<String, Object> merged = jdbcTemplate.queryForMap("with valid as (select *, row_number() over (order by idx) - 1 as n " +
+                    "from " + stagingTable + " where reason is null), " +
+                    "ids as (select nextval('" + sequence + "') as hi, row_number() over () - 1 as k from generate_series(1, ?)), " +
+                    "merged as (" + insert + " returning xmax = 0 as inserted) " +
+                    "select count(*) filter (where inserted) as inserted, count(*) filter (where not inserted) as updated from merged",
+                    (valid + ID_BLOCK - 1) / ID_BLOCK);
+            report.inserted(((Number) merged.get("inserted")).intValue());
+            report.updated(((Number) merged.get("updated")).intValue());
+            int lost = valid - report.getInserted() - report.getUpdated();
+            if (lost > 0) {
+                // inserted by someone else since the check, do nothing skipped them
+                log.warn("{} rows of the {} import conflicted with concurrent writes", lost, table);
+                report.rejected(lost);
+            }
+        }
+
+        List<Object[]> errors = jdbcTemplate.query("select idx, reason from " + stagingTable +
+                " where reason is not null order by idx limit ?", (rs, rowNum) -> new Object[]{rs.getInt(1), rs.getString(2)}, maxErrors);
+        for (Object[] error : errors) {
+            report.rejected((Integer) error[0], 1, (String) error[1]);
+        }
+        if (errors.size() == maxErrors) {
+            int rejected = jdbcTemplate.queryForObject("select count(*) from " + stagingTable + " where reason is not null", Integer.class);
+            report.rejected(rejected - errors.size());
+        }
+        log.info("Import into {} finished: {}", table, report);
+        return report;
+    }
+
+    /**
+     * Fills the staging table, dropped at the commit: {@code idx} is the position of the element in the
+     * body, starting at 0, {@code reason} why it was rejected. A body that isn't valid CSV at all fails the
+     * import with {@link BadRequestException}.
+     */
+    private void stage(InputStream body, CatalogFormat format, Staging staging) throws IOException {
+        List<String> copyColumns = new ArrayList<>();
+        List<String> ignored = new ArrayList<>();
+        if (format == CatalogFormat.CSV) {
+            for (String name : readHeader(body)) {
+                String column = name.trim().replace("\"", "").toLowerCase(Locale.ROOT);
+                if (Arrays.asList(staging.columns).contains(column) && !copyColumns.contains(column)) {
+                    copyColumns.add(column);
+                } else {
+                    column = "ignored_" + ignored.size();
+                    ignored.add(column);
+                    copyColumns.add(column);
+                }
+            }
+            if (!copyColumns.containsAll(Arrays.asList(staging.columns))) {
+                throw new BadRequestException("CSV header should name the columns " + String.join(", ", staging.columns));
+            }
+        } else {
+            copyColumns.add("idx");
+            copyColumns.add("reason");
+            copyColumns.addAll(Arrays.asList(staging.columns));
+        }
+
+        StringBuilder ddl = new StringBuilder("create temporary table ").append(staging.table)
+                .append(" (idx bigint generated by default as identity (minvalue 0 start with 0), reason text");
+        for (String column : staging.columns) {
+            ddl.append(", ").append(column).append(" text");
+        }
+        for (String column : ignored) {
+            ddl.append(", ").append(column).append(" text");
+        }
+        jdbcTemplate.execute(ddl.append(") on commit drop").toString());
+
+        String copy = "copy " + staging.table + " (" + String.join(", ", copyColumns) + ") from stdin with (format csv)";
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            long rows = format == CatalogFormat.CSV
+                    ? copyManager.copyIn(copy, body, COPY_BUFFER)
+                    : copyNdjson(copyManager.copyIn(copy), body, staging);
+            log.info("Staged {} rows for {}", rows, staging.table);
+        } catch (SQLException e) {
+            // 22xxx: COPY couldn't read the data
+            if (e.getSQLState() != null && e.getSQLState().startsWith("22")) {
+                throw new BadRequestException("Request body isn't valid " + format + ": " + e.getMessage());
+            }
+            throw jdbcTemplate.getExceptionTranslator().translate("COPY", copy, e);
+        }
+        // temporary tables are never analyzed on their own, the checks and the merge need the row count
+        jdbcTemplate.execute("analyze " + staging.table);
+    }
+
+    /**
+     * Each line of the body becomes a CSV line of the staging table with its position; a line that isn't a
+     * JSON object, or is longer than {@link #MAX_LINE} characters, is staged with the reason only. Only the
+     * first {@code MAX_LINE} characters of a line are ever held in memory.
+     */
+    private long copyNdjson(CopyIn copyIn, InputStream body, Staging staging) throws SQLException, IOException {
+        LineReader reader = new LineReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        StringBuilder line = new StringBuilder();
+        StringBuilder buffer = new StringBuilder(COPY_BUFFER + 1024);
+        String[] values = new String[staging.columns.length];
+        long index = 0;
+        try {
+            long length;
+            while ((length = reader.next(line)) >= 0) {
+                Arrays.fill(values, null);
+                String reason = null;
+                if (length > MAX_LINE) {
+                    reason = "Element is longer than " + MAX_LINE + " characters";
+                } else if (isBlank(line)) {
+                    continue;
+                } else {
+                    try {
+                        parseLine(line.toString(), staging, values);
+                    } catch (JsonProcessingException e) {
+                        reason = "Element isn't a valid JSON object: " + e.getOriginalMessage();
+                        Arrays.fill(values, null);
+                    }
+                }
+                buffer.append(index++).append(',');
+                csvField(buffer, reason);
+                for (String value : values) {
+                    buffer.append(',');
+                    csvField(buffer, value);
+                }
+                buffer.append('\n');
+                if (buffer.length() >= COPY_BUFFER) {
+                    flush(copyIn, buffer);
+                }
+            }
+            flush(copyIn, buffer);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private void parseLine(String line, Staging staging, String[] values) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Element should be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int column = Arrays.asList(staging.jsonNames).indexOf(parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (column >= 0 && value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+                    values[column] = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Only one JSON object per line is allowed");
+            }
+        }
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * A non-null value is always quoted, an unquoted empty field is {@code NULL} to {@code COPY}.
+     */
+    private static void csvField(StringBuilder buffer, String value) {
+        if (value == null) {
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                buffer.append('"');
+            }
+            buffer.append(c);
+        }
+        buffer.append('"');
+    }
+
+    /**
+     * The first line of the body, the rest is left for {@code COPY}. Names with a comma inside quotes
+     * aren't supported.
+     */
+    private static String[] readHeader(InputStream body) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int b;
+        while ((b = body.read()) != -1 && b != '\n') {
+            if (header.size() == MAX_HEADER) {
+                throw new BadRequestException("CSV header is longer than " + MAX_HEADER + " bytes");
+            }
+            header.write(b);
+        }
+        String line = new String(header.toByteArray(), StandardCharsets.UTF_8);
+        // a byte order mark and the CR of a CRLF line end
+        return line.replace("\uFEFF", "").replace("\r", "").split(",");
+    }
+
+    /**
+     * Splits a body at {@code \n} like {@link java.io.BufferedReader#readLine()}, but keeps at most
+     * {@link #MAX_LINE} characters of a line: a body of one huge line must not end up in a single string.
+     * A {@code \r} before the line end is left in, it is whitespace to JSON.
+     */
+    private static final class LineReader {
+        private final Reader reader;
+        private final char[] chars = new char[8192];
+        private int position;
+        private int limit;
+
+        LineReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads the next line into {@code line} and returns its full length, or -1 at the end of the body.
+         */
+        long next(StringBuilder line) throws IOException {
+            line.setLength(0);
+            long length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(chars, 0, chars.length);
+                    position = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        return length > 0 ? length : -1;
+                    }
+                }
+                int start = position;
+                while (position < limit && chars[position] != '\n') {
+                    position++;
+                }
+                int count = position - start;
+                line.append(chars, start, Math.min(count, MAX_LINE - line.length()));
+                length += count;
+                if (position < limit) {
+                    position++;
+                    return length;
+                }
+            }
+        }
+    }
+
+    private static final class Staging {
+        private final String table;
+        private final String[] columns;
+        private final String[] jsonNames;
+
+        Staging(String table, String[] columns, String[] jsonNames) {
+            this.table = table;
+            this.columns = columns;
+            this.jsonNames = jsonNames;
+        }
+    }
+}
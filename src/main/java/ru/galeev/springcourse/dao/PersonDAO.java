@@ -39,11 +39,13 @@ public class PersonDAO {
     @Transactional
     public void update(int id, Person updatedPerson) {
         Session session = sessionFactory.getCurrentSession();
-        Person personToBeUpdated = session.get(Person.class, id);
-
-        personToBeUpdated.setName(updatedPerson.getName());
-        personToBeUpdated.setAge(updatedPerson.getAge());
-        personToBeUpdated.setEmail(updatedPerson.getEmail());
+        session.createQuery("update Person p set p.name = :name, p.age = :age, p.email = :email, " +
+                        "p.version = p.version + 1, p.updatedAt = current_timestamp where p.id = :id")
+                .setParameter("name", updatedPerson.getName())
+                .setParameter("age", updatedPerson.getAge())
+                .setParameter("email", updatedPerson.getEmail())
+                .setParameter("id", id)
+                .executeUpdate();
     }
     @Transactional
     public void delete(int id) {
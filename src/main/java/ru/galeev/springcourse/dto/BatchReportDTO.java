@@ -0,0 +1,49 @@
+package ru.galeev.springcourse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@ToString(of = {"inserted", "updated", "rejected"})
+public class BatchReportDTO {
+    private int inserted;
+    // existing rows overwritten by an import with onConflict=update
+    private int updated;
+    private int rejected;
+    private final List<Error> errors = new ArrayList<>();
+
+    public void inserted(int count) {
+        inserted += count;
+    }
+
+    public void updated(int count) {
+        updated += count;
+    }
+
+    public void rejected(int index, int count, String message) {
+        rejected += count;
+        errors.add(new Error(index, count, message));
+    }
+
+    /**
+     * Rejected elements that get no error of their own, e.g. past the number of errors reported.
+     */
+    public void rejected(int count) {
+        rejected += count;
+    }
+
+    /**
+     * {@code count} elements starting at array position {@code index} were not inserted.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Error {
+        private final int index;
+        private final int count;
+        private final String message;
+    }
+}
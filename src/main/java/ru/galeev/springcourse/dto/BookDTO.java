@@ -3,6 +3,7 @@ package ru.galeev.springcourse.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 import org.hibernate.annotations.OnDelete;
@@ -14,6 +15,7 @@ import java.util.Calendar;
 
 @Getter
 @Setter
+@NoArgsConstructor
 @ToString(of = {"id", "name"})
 public class BookDTO {
     private int id;
@@ -27,4 +29,13 @@ public class BookDTO {
     @JsonFormat(pattern = "yyyy-MM-dd")
     @DateTimeFormat(pattern = "yyyy-MM-dd")
     private Calendar created;
+
+    /**
+     * Target of the {@code select new} projections in {@code BooksRepository}.
+     */
+    public BookDTO(int id, String name, Calendar created) {
+        this.id = id;
+        this.name = name;
+        this.created = created;
+    }
 }
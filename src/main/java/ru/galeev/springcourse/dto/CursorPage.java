@@ -0,0 +1,72 @@
+package ru.galeev.springcourse.dto;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import ru.galeev.springcourse.util.BadRequestException;
+
+/**
+ * One page of a keyset-paginated listing. {@code next} is the cursor to pass as {@code after}
+ * to get the following page, or {@code null} when this is the last page.
+ */
+@Getter
+public class CursorPage<T> {
+    public static final int MAX_LIMIT = 1000;
+
+    private final List<T> items;
+    private final String next;
+
+    public CursorPage(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    /**
+     * Builds a page from rows fetched with {@code limit + 1}, the extra row only tells whether
+     * there is a next page.
+     */
+    public static <T> CursorPage<T> of(List<T> rows, int limit, Function<T, String> cursor) {
+        if (rows.size() <= limit) {
+            return new CursorPage<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new CursorPage<>(items, cursor.apply(items.get(limit - 1)));
+    }
+
+    /**
+     * {@link #of} for result orders without a usable key, e.g. a search rank: the cursor is the offset of
+     * the following page.
+     */
+    public static <T> CursorPage<T> ofOffset(List<T> rows, int limit, int offset) {
+        return of(rows, limit, item -> String.valueOf(offset + limit));
+    }
+
+    public static int parseOffset(String after) {
+        if (after == null) {
+            return 0;
+        }
+        try {
+            int offset = Integer.parseInt(after);
+            if (offset >= 0) {
+                return offset;
+            }
+        } catch (NumberFormatException e) {
+            // not a number at all, the same answer as a negative one
+        }
+        throw new BadRequestException("Cursor should be a non-negative offset");
+    }
+
+    public static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    public <R> CursorPage<R> map(Function<T, R> mapper) {
+        List<R> mapped = new ArrayList<>(items.size());
+        for (T item : items) {
+            mapped.add(mapper.apply(item));
+        }
+        return new CursorPage<>(mapped, next);
+    }
+}
@@ -0,0 +1,22 @@
+package ru.galeev.springcourse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString(of = {"id", "name", "books"})
+public class PersonWithBooksDTO {
+    private int id;
+    private String name;
+    private int age;
+    private String email;
+    private List<BookDTO> books;
+}
@@ -0,0 +1,23 @@
+package ru.galeev.springcourse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Where a queued write is. {@code bookId} is only set once it is {@link State#DONE}, {@code message} only
+ * when it {@link State#FAILED}.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class WriteStatusDTO {
+    public enum State {
+        QUEUED, DONE, FAILED
+    }
+
+    private final String id;
+    private final State state;
+    private final Integer bookId;
+    private final String message;
+}
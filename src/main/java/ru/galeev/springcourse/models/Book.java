@@ -3,25 +3,30 @@ package ru.galeev.springcourse.models;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 import org.hibernate.annotations.Type;
+import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.format.annotation.DateTimeFormat;
 
 import javax.persistence.*;
 import java.util.Calendar;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name="Book")
 @Getter
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
 @EqualsAndHashCode
 @ToString(of = {"id", "name"})
 public class Book {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
     @Column(name = "book_id")
     private int id;
 
@@ -39,4 +44,18 @@ public class Book {
     @DateTimeFormat(pattern = "yyyy-MM-dd")
     private Calendar created;
 
+    @Version
+    @Column(name = "version")
+    private int version;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private Calendar updatedAt;
+
+    public Book(int id, Person person, String name, Calendar created) {
+        this.id = id;
+        this.person = person;
+        this.name = name;
+        this.created = created;
+    }
 }
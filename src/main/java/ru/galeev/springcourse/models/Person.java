@@ -2,24 +2,30 @@ package ru.galeev.springcourse.models;
 
 
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.*;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
+import java.util.Calendar;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "Person")
 @Getter
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
 @ToString(of = {"id", "name", "age", "email"})
 @EqualsAndHashCode
 public class Person {
     @Id
     @Column(name = "person_id")
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "person_seq")
+    @SequenceGenerator(name = "person_seq", sequenceName = "person_seq", allocationSize = 50)
     private int id;
 
     @NotEmpty(message = "Name should not be empty")
@@ -35,5 +41,19 @@ public class Person {
     @Column(name = "email")
     private String email;
 
+    @Version
+    @Column(name = "version")
+    private int version;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private Calendar updatedAt;
+
+    public Person(int id, String name, int age, String email) {
+        this.id = id;
+        this.name = name;
+        this.age = age;
+        this.email = email;
+    }
 
 }
@@ -1,20 +1,128 @@
 package ru.galeev.springcourse.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.galeev.springcourse.dto.BookDTO;
 import ru.galeev.springcourse.models.Book;
 
+import javax.persistence.QueryHint;
 import javax.transaction.Transactional;
 import java.time.LocalDate;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_FLUSH_MODE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 @Repository
 public interface BooksRepository extends JpaRepository<Book, Integer> {
+    @QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HINT_READONLY, value = "true"),
+            @QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL")})
     List<Book> findByPersonId(int personId);
 
+    /**
+     * Existence of the person and the columns of its books the API exposes in one round-trip, as
+     * {@code [personId, bookId, name, created]}: no rows if the person doesn't exist, a single row with
+     * {@code null} book columns if it has no books, otherwise one row per book.
+     */
+    @Query("select p.id, b.id, b.name, b.created from Person p left join Book b on b.person.id = p.id " +
+            "where p.id = :personId order by b.id")
+    @QueryHints({@QueryHint(name = HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL")})
+    List<Object[]> findPersonWithBookColumns(@Param("personId") int personId);
+
+    /**
+     * Books of all the given people in one query as {@code [personId, bookId, name, created]}, grouped by
+     * person. {@code b.person.id} is the foreign key column, no join with {@code person}.
+     */
+    @Query("select b.person.id, b.id, b.name, b.created from Book b where b.person.id in :personIds " +
+            "order by b.person.id, b.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<Object[]> findBookColumnsOfPeople(@Param("personIds") Collection<Integer> personIds);
+
     @Transactional
-    void deleteByPersonId(int personId);
+    @Modifying
+    @Query("delete from Book b where b.person.id = :personId")
+    int deleteByPersonId(@Param("personId") int personId);
+
+    /**
+     * Columns of the books whose name matches {@code pattern}, best {@code word_similarity} to {@code q}
+     * first. Served by the {@code book_name_trgm_idx} trigram index.
+     */
+    @Query(value = "select b.book_id, b.name, b.created from book b where b.name ilike :pattern " +
+            "order by word_similarity(:q, b.name) desc, b.book_id limit :limit offset :offset", nativeQuery = true)
+    List<Object[]> searchByName(@Param("q") String q, @Param("pattern") String pattern,
+                                @Param("limit") int limit, @Param("offset") int offset);
+
+    /**
+     * One DELETE, no SELECT before it. Returns 0 if there is no such book.
+     */
+    @Modifying
+    @Query("delete from Book b where b.id = :id")
+    int deleteBookById(@Param("id") int id);
+
+    /**
+     * One UPDATE of the name, no SELECT before it. Returns 0 if there is no such book.
+     */
+    @Modifying
+    @Query("update Book b set b.name = :name, b.version = b.version + 1, b.updatedAt = current_timestamp " +
+            "where b.id = :id")
+    int updateById(@Param("id") int id, @Param("name") String name);
+
+    /**
+     * {@link #updateById} that only applies while the row still has {@code version}. Returns 0 if the
+     * book doesn't exist or was changed in the meantime.
+     */
+    @Modifying
+    @Query("update Book b set b.name = :name, b.version = b.version + 1, b.updatedAt = current_timestamp " +
+            "where b.id = :id and b.version = :version")
+    int updateByIdAndVersion(@Param("id") int id, @Param("name") String name, @Param("version") int version);
+
+    @Query("select new ru.galeev.springcourse.dto.BookDTO(b.id, b.name, b.created) from Book b " +
+            "where b.created between :from and :to order by b.created, b.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<BookDTO> findDTOPageByCreatedBetween(@Param("from") Calendar from, @Param("to") Calendar to, Pageable pageable);
+
+    @Query("select new ru.galeev.springcourse.dto.BookDTO(b.id, b.name, b.created) from Book b " +
+            "where b.created between :from and :to " +
+            "and (b.created, b.id) > (:afterCreated, :afterId) order by b.created, b.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<BookDTO> findDTOPageByCreatedBetweenAfter(@Param("from") Calendar from, @Param("to") Calendar to,
+                                                   @Param("afterCreated") Calendar afterCreated, @Param("afterId") int afterId,
+                                                   Pageable pageable);
+
+    /**
+     * Every book as {@code [id, personId, name, created, version, updatedAt]}, grouped by person, the rows
+     * {@code CatalogSnapshot} is loaded from.
+     */
+    @Query("select b.id, b.person.id, b.name, b.created, b.version, b.updatedAt from Book b order by b.person.id, b.id")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "5000"),
+            @QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL")})
+    Stream<Object[]> streamSnapshotRows();
+
+    /**
+     * {@link #streamSnapshotRows} of the given books, those that no longer exist have no row.
+     */
+    @Query("select b.id, b.person.id, b.name, b.created, b.version, b.updatedAt from Book b where b.id in :ids")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<Object[]> findSnapshotRows(@Param("ids") Collection<Integer> ids);
 
-    List<Book> findBooksByCreatedBetween(Calendar from, Calendar to);
+    /**
+     * {@link #streamSnapshotRows} of all books of the given people.
+     */
+    @Query("select b.id, b.person.id, b.name, b.created, b.version, b.updatedAt from Book b " +
+            "where b.person.id in :personIds order by b.person.id, b.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<Object[]> findSnapshotRowsOfPeople(@Param("personIds") Collection<Integer> personIds);
 }
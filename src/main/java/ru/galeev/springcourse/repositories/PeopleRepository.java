@@ -1,8 +1,100 @@
 package ru.galeev.springcourse.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.galeev.springcourse.dto.PersonDTO;
 import ru.galeev.springcourse.models.Person;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_FLUSH_MODE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 @Repository
 public interface PeopleRepository extends JpaRepository<Person, Integer> {
+    @Override
+    @Query("select case when count(p) > 0 then true else false end from Person p where p.id = :id")
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    boolean existsById(@Param("id") Integer id);
+
+    /**
+     * One DELETE, no SELECT before it. Returns 0 if there is no such person.
+     */
+    @Modifying
+    @Query("delete from Person p where p.id = :id")
+    int deletePersonById(@Param("id") int id);
+
+    /**
+     * One UPDATE, no SELECT before it. Returns 0 if there is no such person.
+     */
+    @Modifying
+    @Query("update Person p set p.name = :name, p.age = :age, p.email = :email, " +
+            "p.version = p.version + 1, p.updatedAt = current_timestamp " +
+            "where p.id = :id")
+    int updateById(@Param("id") int id, @Param("name") String name, @Param("age") int age, @Param("email") String email);
+
+    /**
+     * {@link #updateById} that only applies while the row still has {@code version}. Returns 0 if the
+     * person doesn't exist or was changed in the meantime.
+     */
+    @Modifying
+    @Query("update Person p set p.name = :name, p.age = :age, p.email = :email, " +
+            "p.version = p.version + 1, p.updatedAt = current_timestamp " +
+            "where p.id = :id and p.version = :version")
+    int updateByIdAndVersion(@Param("id") int id, @Param("name") String name, @Param("age") int age,
+                             @Param("email") String email, @Param("version") int version);
+
+    @QueryHints({@QueryHint(name = HINT_READONLY, value = "true"),
+            @QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL")})
+    List<Person> findByIdGreaterThanOrderByIdAsc(int id, Pageable pageable);
+
+    @Query("select new ru.galeev.springcourse.dto.PersonDTO(p.id, p.name, p.age, p.email) from Person p " +
+            "where p.id > :after order by p.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<PersonDTO> findDTOsAfter(@Param("after") int after, Pageable pageable);
+
+    @Query("select new ru.galeev.springcourse.dto.PersonDTO(p.id, p.name, p.age, p.email) from Person p order by p.id")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<PersonDTO> findAllDTOs();
+
+    @Query("select new ru.galeev.springcourse.dto.PersonDTO(p.id, p.name, p.age, p.email) from Person p order by p.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<PersonDTO> streamAll();
+
+    /**
+     * Every person as {@code [id, name, age, email, version, updatedAt]}, the rows {@code CatalogSnapshot}
+     * is loaded from.
+     */
+    @Query("select p.id, p.name, p.age, p.email, p.version, p.updatedAt from Person p")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "5000"),
+            @QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL")})
+    Stream<Object[]> streamSnapshotRows();
+
+    /**
+     * {@link #streamSnapshotRows} of the given people, those that no longer exist have no row.
+     */
+    @Query("select p.id, p.name, p.age, p.email, p.version, p.updatedAt from Person p where p.id in :ids")
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "MANUAL"))
+    List<Object[]> findSnapshotRows(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Columns of the people whose name or email matches {@code pattern}, best {@code word_similarity} to
+     * {@code q} first. Each condition is served by its own trigram index.
+     */
+    @Query(value = "select p.person_id, p.name, p.age, p.email from person p " +
+            "where p.name ilike :pattern or p.email ilike :pattern " +
+            "order by greatest(word_similarity(:q, p.name), word_similarity(:q, p.email)) desc, p.person_id " +
+            "limit :limit offset :offset", nativeQuery = true)
+    List<Object[]> searchByNameOrEmail(@Param("q") String q, @Param("pattern") String pattern,
+                                       @Param("limit") int limit, @Param("offset") int offset);
 }
@@ -0,0 +1,281 @@
+package ru.galeev.springcourse.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.WriteStatusDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.util.BadRequestException;
+import ru.galeev.springcourse.util.Convert;
+import ru.galeev.springcourse.util.SqlStates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind for book creation. {@link #offer} only queues the book and returns a tracking id; a single
+ * writer thread wakes every {@code write_behind.flush_interval} ms, or as soon as {@code flush_size} books
+ * are waiting, and inserts them {@code flush_size} at a time, each chunk in one transaction through
+ * {@link BooksService#saveAll}, so many requests share one commit and the JDBC batches. A chunk a constraint
+ * rejected is retried book by book, so one bad book doesn't fail the others. Any other failure, no
+ * connection, a timeout or a failed commit, fails the whole chunk at once: retrying book by book would wait
+ * for a connection once per book while the database is down.
+ * <p>
+ * The queue is lock-free and bounded by {@code write_behind.capacity}: a full queue rejects the offer, which
+ * the caller answers with 503. Statuses are kept for {@code status_ttl} ms after the write finished.
+ * Queued books live in memory only, they are lost if the process dies before the writer got to them.
+ */
+@Service
+@Slf4j
+public class BookWriteQueue implements SmartInitializingSingleton, DisposableBean {
+    private static final String PERSON_MISSING = "Person doesn't exist";
+    private static final String DUPLICATE = "Duplicate book";
+    private static final String INVALID = "Invalid book: a value is missing or too long";
+    private static final String NOT_INSERTED = "Book wasn't created";
+
+    private final BooksService booksService;
+    private final PeopleService peopleService;
+    private final int capacity;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final long statusTtlNanos;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger size = new AtomicInteger();
+    private final Map<String, WriteStatusDTO> statuses = new ConcurrentHashMap<>();
+    // finished writes in the order they finished, to expire their statuses
+    private final Queue<Finished> finished = new ConcurrentLinkedQueue<>();
+    private volatile Thread writer;
+    private volatile boolean running;
+
+    public BookWriteQueue(BooksService booksService, PeopleService peopleService, MeterRegistry meterRegistry,
+                          @Value("${write_behind.capacity}") int capacity,
+                          @Value("${write_behind.flush_size}") int flushSize,
+                          @Value("${write_behind.flush_interval}") long flushInterval,
+                          @Value("${write_behind.status_ttl}") long statusTtl) {
+        this.booksService = booksService;
+        this.peopleService = peopleService;
+        this.capacity = capacity;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.statusTtlNanos = TimeUnit.MILLISECONDS.toNanos(statusTtl);
+
+        Gauge.builder("write_behind.queue.size", size, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        running = true;
+        Thread thread = new Thread(this::run, "book-write-behind");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Queues the book of the person. Throws {@link RejectedExecutionException} if the queue is full and
+     * {@link BadRequestException} if the book has no name or creation date, which the insert would
+     * only reject later.
+     */
+    public WriteStatusDTO offer(int personId, BookDTO book) {
+        if (book.getName() == null || book.getName().trim().isEmpty()) {
+            throw new BadRequestException("name - Name should not be empty;");
+        }
+        if (book.getCreated() == null) {
+            throw new BadRequestException("created - Creation date should not be empty;");
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            throw new RejectedExecutionException("Book write queue is full");
+        }
+        WriteStatusDTO status = new WriteStatusDTO(UUID.randomUUID().toString(), WriteStatusDTO.State.QUEUED, null, null);
+        statuses.put(status.getId(), status);
+        queue.add(new Entry(status.getId(), personId, book));
+        Thread writer = this.writer;
+        if (writer != null && size.get() >= flushSize) {
+            LockSupport.unpark(writer);
+        }
+        return status;
+    }
+
+    /**
+     * Status of the write, {@code null} if there is no such write or it finished more than
+     * {@code status_ttl} ago.
+     */
+    public WriteStatusDTO status(String id) {
+        return statuses.get(id);
+    }
+
+    /**
+     * Writes everything that is queued now on the calling thread.
+     */
+    public void flush() {
+        List<Entry> chunk = new ArrayList<>(flushSize);
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            size.decrementAndGet();
+            chunk.add(entry);
+            if (chunk.size() == flushSize) {
+                write(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            write(chunk);
+        }
+        expireStatuses();
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Write-behind flush failed", e);
+            }
+        }
+        flush();
+    }
+
+    private void write(List<Entry> chunk) {
+        List<Book> books = new ArrayList<>(chunk.size());
+        for (Entry entry : chunk) {
+            books.add(toBook(entry));
+        }
+        try {
+            booksService.saveAll(books);
+            for (int i = 0; i < chunk.size(); i++) {
+                done(chunk.get(i), books.get(i).getId());
+            }
+            log.info("Write-behind inserted {} books", chunk.size());
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Write-behind chunk of {} books wasn't inserted, retrying one by one: {}", chunk.size(),
+                    detail(e));
+            for (int i = 0; i < chunk.size(); i++) {
+                Entry entry = chunk.get(i);
+                // the failed chunk may have given ids to its books already
+                Book book = toBook(entry);
+                try {
+                    booksService.save(book);
+                    done(entry, book.getId());
+                } catch (DataIntegrityViolationException single) {
+                    log.warn("Write-behind book {} wasn't inserted: {}", entry.id, detail(single));
+                    failed(entry, reason(single));
+                } catch (RuntimeException single) {
+                    failAll(chunk.subList(i, chunk.size()), single);
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            failAll(chunk, e);
+        }
+    }
+
+    private void failAll(List<Entry> entries, RuntimeException e) {
+        log.error("Write-behind chunk of {} books failed", entries.size(), e);
+        for (Entry entry : entries) {
+            failed(entry, reason(e));
+        }
+    }
+
+    /**
+     * The reason a client gets for a book that wasn't inserted, chosen by SQLSTATE: the driver's message
+     * names tables, columns and values, only the log gets it.
+     */
+    private static String reason(RuntimeException e) {
+        String sqlState = SqlStates.of(e);
+        if (SqlStates.FOREIGN_KEY_VIOLATION.equals(sqlState)) {
+            return PERSON_MISSING;
+        }
+        if (SqlStates.UNIQUE_VIOLATION.equals(sqlState)) {
+            return DUPLICATE;
+        }
+        if (SqlStates.NOT_NULL_VIOLATION.equals(sqlState) || SqlStates.STRING_DATA_RIGHT_TRUNCATION.equals(sqlState)) {
+            return INVALID;
+        }
+        return NOT_INSERTED;
+    }
+
+    private static String detail(RuntimeException e) {
+        return e instanceof DataAccessException ? ((DataAccessException) e).getMostSpecificCause().getMessage() : e.getMessage();
+    }
+
+    private Book toBook(Entry entry) {
+        Book book = Convert.convertToBook(entry.book);
+        book.setId(0);
+        book.setPerson(peopleService.getReference(entry.personId));
+        return book;
+    }
+
+    private void done(Entry entry, int bookId) {
+        statuses.put(entry.id, new WriteStatusDTO(entry.id, WriteStatusDTO.State.DONE, bookId, null));
+        finished.add(new Finished(entry.id, System.nanoTime()));
+    }
+
+    private void failed(Entry entry, String message) {
+        statuses.put(entry.id, new WriteStatusDTO(entry.id, WriteStatusDTO.State.FAILED, null, message));
+        finished.add(new Finished(entry.id, System.nanoTime()));
+    }
+
+    private void expireStatuses() {
+        long now = System.nanoTime();
+        Finished head;
+        while ((head = finished.peek()) != null && now - head.at > statusTtlNanos) {
+            finished.poll();
+            statuses.remove(head.id);
+        }
+    }
+
+    /**
+     * Writes what is still queued before the data source goes away.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        Thread writer = this.writer;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 10000);
+        }
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final int personId;
+        private final BookDTO book;
+
+        Entry(String id, int personId, BookDTO book) {
+            this.id = id;
+            this.personId = personId;
+            this.book = book;
+        }
+    }
+
+    private static final class Finished {
+        private final String id;
+        private final long at;
+
+        Finished(String id, long at) {
+            this.id = id;
+            this.at = at;
+        }
+    }
+}
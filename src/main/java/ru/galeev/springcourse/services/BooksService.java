@@ -1,14 +1,22 @@
 package ru.galeev.springcourse.services;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
 import ru.galeev.springcourse.models.Book;
 import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.util.BadRequestException;
+import ru.galeev.springcourse.util.SearchPatterns;
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,9 +25,11 @@ import java.util.Optional;
 @Slf4j
 public class BooksService {
     private final BooksRepository bookRepository;
+    private final CatalogSnapshot snapshot;
 
-    public BooksService(BooksRepository bookRepository) {
+    public BooksService(BooksRepository bookRepository, CatalogSnapshot snapshot) {
         this.bookRepository = bookRepository;
+        this.snapshot = snapshot;
     }
 
     public List<Book> findByPersonId(int id) {
@@ -27,31 +37,170 @@ public class BooksService {
         return bookRepository.findByPersonId(id);
     }
 
-    public List<Book> findBooksByCreatedDateBetween(Calendar from, Calendar to) {
-        log.info("Method findBooksByCreatedDateBetween is returning books in range from = {}, to = {}...", from, to);
-        return bookRepository.findBooksByCreatedBetween(from, to);
+    /**
+     * Columns of the books of the person, no entities are hydrated, or empty if there is no such person.
+     * Served from the {@link CatalogSnapshot} while it is on.
+     */
+    public Optional<List<BookDTO>> findDTOsByPersonIdIfExists(int personId) {
+        log.info("Method findDTOsByPersonIdIfExists is returning person's with id = {} list of books...", personId);
+        if (snapshot.isServing()) {
+            return snapshot.booksOfPerson(personId);
+        }
+        List<Object[]> rows = bookRepository.findPersonWithBookColumns(personId);
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        List<BookDTO> books = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            if (row[1] != null) {
+                books.add(new BookDTO((Integer) row[1], (String) row[2], (Calendar) row[3]));
+            }
+        }
+        return Optional.of(books);
     }
 
+    /**
+     * Keyset page of books created in range, ordered by {@code (created, id)}, selected straight into
+     * {@link BookDTO}. The cursor has the form {@code yyyy-MM-dd:id} and is {@code null} for the first page.
+     */
+    public CursorPage<BookDTO> findDTOPageByCreatedDateBetween(Calendar from, Calendar to, String after, int limit) {
+        log.info("Method findDTOPageByCreatedDateBetween is returning {} books in range after {}...", limit, after);
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<BookDTO> rows;
+        if (after == null) {
+            rows = bookRepository.findDTOPageByCreatedBetween(from, to, page);
+        } else {
+            Cursor cursor = Cursor.parse(after);
+            rows = bookRepository.findDTOPageByCreatedBetweenAfter(from, to, cursor.created, cursor.id, page);
+        }
+        return CursorPage.of(rows, limit, book -> Cursor.format(book.getCreated(), book.getId()));
+    }
+
+    /**
+     * A detached copy without the person from the {@link CatalogSnapshot} while it is on.
+     */
     public Optional<Book> findById(int id) {
         log.info("Method findById is returning book with id = {}...", id);
+        if (snapshot.isServing()) {
+            return Optional.ofNullable(snapshot.book(id)).map(CatalogSnapshot.BookRow::toBook);
+        }
         return bookRepository.findById(id);
     }
 
     @Transactional
     public Book save(Book book) {
         log.info("Method save is keeping book {}...", book);
-        return bookRepository.save(book);
+        Book saved = bookRepository.save(book);
+        // persist gives the id to the book itself, a merge keeps it
+        snapshot.bookChanged(book.getId());
+        return saved;
+    }
+
+    @Transactional
+    public List<Book> saveAll(List<Book> books) {
+        log.info("Method saveAll is keeping {} books...", books.size());
+        List<Book> saved = bookRepository.saveAll(books);
+        for (Book book : books) {
+            snapshot.bookChanged(book.getId());
+        }
+        return saved;
+    }
+
+    /**
+     * Renames the book with a single UPDATE, the row isn't read first; the creation date is kept.
+     * Returns the number of updated rows, 0 if there is no such book.
+     */
+    @Transactional
+    public int update(int id, Book updatedBook) {
+        log.info("Method update is updating book {} with id = {}...", updatedBook, id);
+        return changed(id, bookRepository.updateById(id, updatedBook.getName()));
+    }
+
+    /**
+     * {@link #update(int, Book)} that only applies while the book is still at {@code version}.
+     * Returns 0 if the book doesn't exist or was changed in the meantime.
+     */
+    @Transactional
+    public int update(int id, Book updatedBook, int version) {
+        log.info("Method update is updating book {} with id = {} at version {}...", updatedBook, id, version);
+        return changed(id, bookRepository.updateByIdAndVersion(id, updatedBook.getName(), version));
     }
 
     @Transactional
-    public void deleteByPersonId(int personId) {
+    public int deleteByPersonId(int personId) {
         log.info("Method deleteByPersonId is deleting person's with id = {} all books...", personId);
-        bookRepository.deleteByPersonId(personId);
+        int deleted = bookRepository.deleteByPersonId(personId);
+        if (deleted > 0) {
+            snapshot.booksOfPersonChanged(personId);
+        }
+        return deleted;
+    }
+
+    /**
+     * Books whose name contains {@code q}, or starts with it for queries shorter than
+     * {@link SearchPatterns#MIN_SUBSTRING_LENGTH}, best matches first. {@code after} is the offset
+     * cursor of the previous page.
+     */
+    public CursorPage<BookDTO> search(String q, String after, int limit) {
+        String query = SearchPatterns.normalize(q);
+        int offset = CursorPage.parseOffset(after);
+        log.info("Method search is returning {} books matching '{}' from {}...", limit, query, offset);
+        List<Object[]> rows = bookRepository.searchByName(query, SearchPatterns.likePattern(query), limit + 1, offset);
+        List<BookDTO> books = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Calendar created = new GregorianCalendar();
+            created.setTime((Date) row[2]);
+            books.add(new BookDTO(((Number) row[0]).intValue(), (String) row[1], created));
+        }
+        return CursorPage.ofOffset(books, limit, offset);
     }
 
+    /**
+     * Returns the number of deleted books, 0 if there is no such book.
+     */
     @Transactional
-    public void deleteById(int id) {
+    public int deleteById(int id) {
         log.info("Method deleteById is deleting book with id = {}...", id);
-        bookRepository.deleteById(id);
+        return changed(id, bookRepository.deleteBookById(id));
+    }
+
+    private int changed(int id, int rows) {
+        if (rows > 0) {
+            snapshot.bookChanged(id);
+        }
+        return rows;
+    }
+
+    /**
+     * Position in the {@code (created, id)} order, written as {@code yyyy-MM-dd:id}.
+     */
+    private static class Cursor {
+        private final Calendar created;
+        private final int id;
+
+        private Cursor(Calendar created, int id) {
+            this.created = created;
+            this.id = id;
+        }
+
+        static Cursor parse(String after) {
+            int separator = after.lastIndexOf(':');
+            if (separator < 0) {
+                throw new BadRequestException("Cursor should look like yyyy-MM-dd:id");
+            }
+            LocalDate created;
+            int id;
+            try {
+                created = LocalDate.parse(after.substring(0, separator));
+                id = Integer.parseInt(after.substring(separator + 1));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new BadRequestException("Cursor should look like yyyy-MM-dd:id");
+            }
+            return new Cursor(new GregorianCalendar(created.getYear(), created.getMonthValue() - 1, created.getDayOfMonth()), id);
+        }
+
+        static String format(Calendar created, int id) {
+            return String.format("%tF:%d", created, id);
+        }
     }
 }
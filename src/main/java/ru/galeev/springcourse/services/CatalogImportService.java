@@ -0,0 +1,52 @@
+package ru.galeev.springcourse.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import ru.galeev.springcourse.dao.CatalogImportDAO;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bulk imports through {@link CatalogImportDAO}. The import commits before this returns; only then are the
+ * second-level and query caches, which the {@code COPY} bypassed, cleared and the {@link CatalogSnapshot}
+ * loaded again, so nothing stale can be cached again in between.
+ */
+@Service
+@Slf4j
+public class CatalogImportService {
+    private final CatalogImportDAO importDAO;
+    private final EntityManagerFactory entityManagerFactory;
+    private final CatalogSnapshot snapshot;
+
+    @Autowired
+    public CatalogImportService(CatalogImportDAO importDAO, EntityManagerFactory entityManagerFactory,
+                                CatalogSnapshot snapshot) {
+        this.importDAO = importDAO;
+        this.entityManagerFactory = entityManagerFactory;
+        this.snapshot = snapshot;
+    }
+
+    public BatchReportDTO importBooks(InputStream body, CatalogFormat format, boolean update) throws IOException {
+        log.info("Method importBooks is importing books from {}...", format);
+        return changed(importDAO.importBooks(body, format, update));
+    }
+
+    public BatchReportDTO importPeople(InputStream body, CatalogFormat format, boolean update) throws IOException {
+        log.info("Method importPeople is importing people from {}...", format);
+        return changed(importDAO.importPeople(body, format, update));
+    }
+
+    private BatchReportDTO changed(BatchReportDTO report) {
+        if (report.getInserted() + report.getUpdated() > 0) {
+            entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+            snapshot.reload();
+        }
+        return report;
+    }
+}
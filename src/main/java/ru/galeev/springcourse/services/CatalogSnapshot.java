@@ -0,0 +1,612 @@
+package ru.galeev.springcourse.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.util.IntObjectMap;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * In-memory copy of all people and books, switched on with {@code snapshot.enabled}. It is loaded once
+ * at startup; after that the services report every id they write and, once the writing transaction
+ * has committed, just those rows are read again. While it is serving, {@link PeopleService} and
+ * {@link BooksService} answer single people and books, a person's books and the list of all people
+ * from here without touching the database.
+ * <p>
+ * Rows are kept in {@link IntObjectMap}s keyed by the primitive id, a person's books as a sorted
+ * {@code int[]} of book ids. Only writes through this instance's services are seen; if a refresh fails
+ * the snapshot stops serving, reads go back to the database and the whole snapshot is loaded again
+ * after {@code snapshot.retry_delay} ms, doubled after every failed load up to
+ * {@code snapshot.retry_max_delay}. The estimated heap it takes is the {@code catalog.snapshot.bytes}
+ * gauge.
+ */
+@Service
+@Slf4j
+public class CatalogSnapshot implements SmartInitializingSingleton, DisposableBean {
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final PeopleRepository peopleRepository;
+    private final BooksRepository booksRepository;
+    private final TransactionTemplate readTransaction;
+    private final boolean enabled;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final ScheduledExecutorService retries;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object refreshLock = new Object();
+    private IntObjectMap<PersonRow> people = new IntObjectMap<>();
+    private IntObjectMap<BookRow> books = new IntObjectMap<>();
+    // sorted book ids per person id, an array is replaced and never modified once it is in the map
+    private IntObjectMap<int[]> bookIdsByPerson = new IntObjectMap<>();
+    private long rowBytes;
+    private volatile boolean serving;
+
+    @Autowired
+    public CatalogSnapshot(PeopleRepository peopleRepository, BooksRepository booksRepository,
+                           PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                           @Value("${snapshot.enabled}") boolean enabled,
+                           @Value("${snapshot.retry_delay}") long retryDelay,
+                           @Value("${snapshot.retry_max_delay}") long maxRetryDelay) {
+        this.peopleRepository = peopleRepository;
+        this.booksRepository = booksRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        // also used after the commit of a write, where the finished transaction is still bound
+        this.readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // not read-only, so it runs on the primary: a replica may not have the commit being captured yet
+        this.enabled = enabled;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = Math.max(retryDelay, maxRetryDelay);
+        this.retries = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-snapshot-reload");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        Gauge.builder("catalog.snapshot.size", this, snapshot -> snapshot.size(true)).tag("type", "people")
+                .description("Rows in the catalog snapshot").register(meterRegistry);
+        Gauge.builder("catalog.snapshot.size", this, snapshot -> snapshot.size(false)).tag("type", "books")
+                .description("Rows in the catalog snapshot").register(meterRegistry);
+        Gauge.builder("catalog.snapshot.bytes", this, CatalogSnapshot::footprint).baseUnit("bytes")
+                .description("Estimated heap taken by the catalog snapshot").register(meterRegistry);
+    }
+
+    /**
+     * Loads the snapshot once every singleton, Liquibase included, is ready.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (retries != null) {
+            retries.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether reads should be served from the snapshot.
+     */
+    public boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * Loads everything again, for writes too large to capture row by row, e.g. a bulk import. Also brings
+     * the snapshot back after a failed refresh.
+     */
+    public void reload() {
+        if (enabled) {
+            synchronized (refreshLock) {
+                load();
+            }
+        }
+    }
+
+    void load() {
+        long start = System.nanoTime();
+        readTransaction.executeWithoutResult(status -> {
+            IntObjectMap<PersonRow> loadedPeople = new IntObjectMap<>();
+            IntObjectMap<BookRow> loadedBooks = new IntObjectMap<>();
+            IntObjectMap<int[]> loadedBookIds = new IntObjectMap<>();
+            long bytes = 0;
+            try (Stream<Object[]> rows = peopleRepository.streamSnapshotRows()) {
+                for (Iterator<Object[]> it = rows.iterator(); it.hasNext(); ) {
+                    PersonRow person = personRow(it.next());
+                    loadedPeople.put(person.id, person);
+                    bytes += person.footprint();
+                }
+            }
+            // rows come grouped by person, each run of book ids becomes that person's array
+            int[] run = new int[16];
+            int length = 0;
+            int owner = 0;
+            try (Stream<Object[]> rows = booksRepository.streamSnapshotRows()) {
+                for (Iterator<Object[]> it = rows.iterator(); it.hasNext(); ) {
+                    BookRow book = bookRow(it.next());
+                    if (length > 0 && book.personId != owner) {
+                        bytes += putBookIds(loadedBookIds, owner, Arrays.copyOf(run, length));
+                        length = 0;
+                    }
+                    if (length == run.length) {
+                        run = Arrays.copyOf(run, length * 2);
+                    }
+                    run[length++] = book.id;
+                    owner = book.personId;
+                    loadedBooks.put(book.id, book);
+                    bytes += book.footprint();
+                }
+            }
+            if (length > 0) {
+                bytes += putBookIds(loadedBookIds, owner, Arrays.copyOf(run, length));
+            }
+
+            lock.writeLock().lock();
+            try {
+                people = loadedPeople;
+                books = loadedBooks;
+                bookIdsByPerson = loadedBookIds;
+                rowBytes = bytes;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+        serving = true;
+        log.info("Catalog snapshot loaded {} people and {} books in {} ms, about {} MiB", size(true), size(false),
+                (System.nanoTime() - start) / 1_000_000, footprint() >> 20);
+    }
+
+    public PersonRow person(int id) {
+        lock.readLock().lock();
+        try {
+            return people.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BookRow book(int id) {
+        lock.readLock().lock();
+        try {
+            return books.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Books of the person ordered by id, or empty if there is no such person.
+     */
+    public Optional<List<BookDTO>> booksOfPerson(int personId) {
+        lock.readLock().lock();
+        try {
+            if (!people.containsKey(personId)) {
+                return Optional.empty();
+            }
+            int[] ids = bookIdsByPerson.get(personId);
+            if (ids == null) {
+                return Optional.of(new ArrayList<>());
+            }
+            List<BookDTO> result = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                result.add(books.get(id).toDTO());
+            }
+            return Optional.of(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * All people ordered by id.
+     */
+    public List<PersonDTO> allPeople() {
+        List<PersonRow> rows;
+        lock.readLock().lock();
+        try {
+            rows = new ArrayList<>(people.size());
+            people.forEachValue(rows::add);
+        } finally {
+            lock.readLock().unlock();
+        }
+        rows.sort(Comparator.comparingInt(PersonRow::getId));
+        List<PersonDTO> result = new ArrayList<>(rows.size());
+        for (PersonRow row : rows) {
+            result.add(row.toDTO());
+        }
+        return result;
+    }
+
+    /**
+     * The person was created, updated or deleted, deleting also drops its books.
+     */
+    public void personChanged(int id) {
+        capture(id, changes -> changes.people);
+    }
+
+    /**
+     * The book was created, updated or deleted.
+     */
+    public void bookChanged(int id) {
+        capture(id, changes -> changes.books);
+    }
+
+    /**
+     * Any of the person's books may have been created, updated or deleted.
+     */
+    public void booksOfPersonChanged(int personId) {
+        capture(personId, changes -> changes.owners);
+    }
+
+    /**
+     * Adds the id to the changes of the current transaction, which are applied after it commits.
+     * Outside of a transaction the change is applied right away.
+     */
+    private void capture(int id, Function<Changes, Set<Integer>> ids) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Changes changes = new Changes();
+            ids.apply(changes).add(id);
+            refresh(changes);
+            return;
+        }
+        Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new Changes();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(changes);
+        }
+        ids.apply(changes).add(id);
+    }
+
+    private void refresh(Changes changes) {
+        // one refresh at a time: each reads after the commits before it, so a slower refresh can't
+        // overwrite newer rows with the older ones it read. A refresh during a reload waits for it.
+        synchronized (refreshLock) {
+            if (!serving) {
+                // the scheduled reload reads this commit too
+                return;
+            }
+            try {
+                readTransaction.executeWithoutResult(status -> {
+                    List<Object[]> personRows = changes.people.isEmpty() ? new ArrayList<>()
+                            : peopleRepository.findSnapshotRows(changes.people);
+                    List<Object[]> ownerRows = changes.owners.isEmpty() ? new ArrayList<>()
+                            : booksRepository.findSnapshotRowsOfPeople(changes.owners);
+                    List<Object[]> bookRows = changes.books.isEmpty() ? new ArrayList<>()
+                            : booksRepository.findSnapshotRows(changes.books);
+                    apply(changes, personRows, ownerRows, bookRows);
+                });
+            } catch (RuntimeException e) {
+                serving = false;
+                log.error("Catalog snapshot couldn't be refreshed and no longer serves reads, loading it again in {} ms",
+                        retryDelay, e);
+                scheduleReload(retryDelay);
+            }
+        }
+    }
+
+    private void scheduleReload(long delay) {
+        if (!retries.isShutdown()) {
+            retries.schedule(() -> retryLoad(delay), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void retryLoad(long delay) {
+        synchronized (refreshLock) {
+            if (serving) {
+                // already loaded again, e.g. after an import
+                return;
+            }
+            try {
+                load();
+            } catch (RuntimeException e) {
+                long next = Math.min(delay * 2, maxRetryDelay);
+                log.error("Catalog snapshot couldn't be loaded, trying again in {} ms", next, e);
+                scheduleReload(next);
+            }
+        }
+    }
+
+    private void apply(Changes changes, List<Object[]> personRows, List<Object[]> ownerRows, List<Object[]> bookRows) {
+        lock.writeLock().lock();
+        try {
+            Set<Integer> removedPeople = new HashSet<>(changes.people);
+            for (Object[] row : personRows) {
+                PersonRow person = personRow(row);
+                removedPeople.remove(person.id);
+                PersonRow previous = people.put(person.id, person);
+                rowBytes += person.footprint() - (previous == null ? 0 : previous.footprint());
+            }
+            for (int id : removedPeople) {
+                removePerson(id);
+            }
+
+            for (int personId : changes.owners) {
+                int[] ids = bookIdsByPerson.remove(personId);
+                if (ids != null) {
+                    rowBytes -= arrayFootprint(ids);
+                    for (int id : ids) {
+                        rowBytes -= books.remove(id).footprint();
+                    }
+                }
+            }
+            for (Object[] row : ownerRows) {
+                putBook(bookRow(row));
+            }
+
+            Set<Integer> removedBooks = new HashSet<>(changes.books);
+            for (Object[] row : bookRows) {
+                BookRow book = bookRow(row);
+                removedBooks.remove(book.id);
+                putBook(book);
+            }
+            for (int id : removedBooks) {
+                BookRow previous = books.remove(id);
+                if (previous != null) {
+                    rowBytes -= previous.footprint();
+                    removeBookId(previous.personId, id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removePerson(int id) {
+        PersonRow previous = people.remove(id);
+        if (previous != null) {
+            rowBytes -= previous.footprint();
+        }
+        int[] ids = bookIdsByPerson.remove(id);
+        if (ids != null) {
+            rowBytes -= arrayFootprint(ids);
+            for (int bookId : ids) {
+                rowBytes -= books.remove(bookId).footprint();
+            }
+        }
+    }
+
+    private void putBook(BookRow book) {
+        BookRow previous = books.put(book.id, book);
+        rowBytes += book.footprint() - (previous == null ? 0 : previous.footprint());
+        if (previous != null && previous.personId == book.personId) {
+            return;
+        }
+        if (previous != null) {
+            removeBookId(previous.personId, book.id);
+        }
+        int[] ids = bookIdsByPerson.get(book.personId);
+        int[] updated;
+        if (ids == null) {
+            updated = new int[]{book.id};
+        } else {
+            int at = -Arrays.binarySearch(ids, book.id) - 1;
+            updated = new int[ids.length + 1];
+            System.arraycopy(ids, 0, updated, 0, at);
+            updated[at] = book.id;
+            System.arraycopy(ids, at, updated, at + 1, ids.length - at);
+            rowBytes -= arrayFootprint(ids);
+        }
+        rowBytes += putBookIds(bookIdsByPerson, book.personId, updated);
+    }
+
+    private void removeBookId(int personId, int bookId) {
+        int[] ids = bookIdsByPerson.get(personId);
+        int at = ids == null ? -1 : Arrays.binarySearch(ids, bookId);
+        if (at < 0) {
+            return;
+        }
+        rowBytes -= arrayFootprint(ids);
+        if (ids.length == 1) {
+            bookIdsByPerson.remove(personId);
+            return;
+        }
+        int[] updated = new int[ids.length - 1];
+        System.arraycopy(ids, 0, updated, 0, at);
+        System.arraycopy(ids, at + 1, updated, at, ids.length - at - 1);
+        rowBytes += putBookIds(bookIdsByPerson, personId, updated);
+    }
+
+    private static long putBookIds(IntObjectMap<int[]> bookIds, int personId, int[] ids) {
+        bookIds.put(personId, ids);
+        return arrayFootprint(ids);
+    }
+
+    private int size(boolean ofPeople) {
+        lock.readLock().lock();
+        try {
+            return ofPeople ? people.size() : books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated heap size of the maps and everything in them, assuming compressed references and
+     * Latin-1 strings.
+     */
+    long footprint() {
+        lock.readLock().lock();
+        try {
+            return people.footprint() + books.footprint() + bookIdsByPerson.footprint() + rowBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static PersonRow personRow(Object[] row) {
+        return new PersonRow((Integer) row[0], (String) row[1], (Integer) row[2], (String) row[3],
+                (Integer) row[4], millis((Calendar) row[5]));
+    }
+
+    private static BookRow bookRow(Object[] row) {
+        Calendar created = (Calendar) row[3];
+        int createdDay = created == null ? NO_DATE : (int) LocalDate.of(created.get(Calendar.YEAR),
+                created.get(Calendar.MONTH) + 1, created.get(Calendar.DAY_OF_MONTH)).toEpochDay();
+        return new BookRow((Integer) row[0], (Integer) row[1], (String) row[2], createdDay,
+                (Integer) row[4], millis((Calendar) row[5]));
+    }
+
+    private static long millis(Calendar calendar) {
+        return calendar == null ? 0 : calendar.getTimeInMillis();
+    }
+
+    private static Calendar calendar(long millis) {
+        Calendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long stringFootprint(String s) {
+        return s == null ? 0 : 24 + align(16 + s.length());
+    }
+
+    private static long arrayFootprint(int[] ids) {
+        return align(16 + 4L * ids.length);
+    }
+
+    @Getter
+    public static final class PersonRow {
+        private final int id;
+        private final String name;
+        private final int age;
+        private final String email;
+        private final int version;
+        private final long updatedAt;
+
+        PersonRow(int id, String name, int age, String email, int version, long updatedAt) {
+            this.id = id;
+            this.name = name;
+            this.age = age;
+            this.email = email;
+            this.version = version;
+            this.updatedAt = updatedAt;
+        }
+
+        public PersonDTO toDTO() {
+            return new PersonDTO(id, name, age, email);
+        }
+
+        /**
+         * A detached entity with the snapshot's state.
+         */
+        public Person toPerson() {
+            Person person = new Person(id, name, age, email);
+            person.setVersion(version);
+            person.setUpdatedAt(calendar(updatedAt));
+            return person;
+        }
+
+        long footprint() {
+            return 40 + stringFootprint(name) + stringFootprint(email);
+        }
+    }
+
+    @Getter
+    public static final class BookRow {
+        private final int id;
+        private final int personId;
+        private final String name;
+        // days since the epoch, NO_DATE if there is none
+        private final int createdDay;
+        private final int version;
+        private final long updatedAt;
+
+        BookRow(int id, int personId, String name, int createdDay, int version, long updatedAt) {
+            this.id = id;
+            this.personId = personId;
+            this.name = name;
+            this.createdDay = createdDay;
+            this.version = version;
+            this.updatedAt = updatedAt;
+        }
+
+        public BookDTO toDTO() {
+            return new BookDTO(id, name, created());
+        }
+
+        /**
+         * A detached entity with the snapshot's state and no person.
+         */
+        public Book toBook() {
+            Book book = new Book(id, null, name, created());
+            book.setVersion(version);
+            book.setUpdatedAt(calendar(updatedAt));
+            return book;
+        }
+
+        private Calendar created() {
+            if (createdDay == NO_DATE) {
+                return null;
+            }
+            LocalDate date = LocalDate.ofEpochDay(createdDay);
+            return new GregorianCalendar(date.getYear(), date.getMonthValue() - 1, date.getDayOfMonth());
+        }
+
+        long footprint() {
+            return 40 + stringFootprint(name);
+        }
+    }
+
+    private final class Changes implements TransactionSynchronization {
+        private final Set<Integer> people = new HashSet<>();
+        private final Set<Integer> books = new HashSet<>();
+        private final Set<Integer> owners = new HashSet<>();
+
+        @Override
+        public void afterCommit() {
+            refresh(this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(CatalogSnapshot.this);
+        }
+    }
+}
@@ -2,23 +2,40 @@ package ru.galeev.springcourse.services;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.dto.PersonWithBooksDTO;
 import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
 import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.util.SearchPatterns;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @Transactional(readOnly = true)
 @Slf4j
 public class PeopleService {
     private final PeopleRepository peopleRepository;
+    private final BooksRepository booksRepository;
+    private final CatalogSnapshot snapshot;
 
     @Autowired
-    public PeopleService(PeopleRepository peopleRepository) {
+    public PeopleService(PeopleRepository peopleRepository, BooksRepository booksRepository, CatalogSnapshot snapshot) {
         this.peopleRepository = peopleRepository;
+        this.booksRepository = booksRepository;
+        this.snapshot = snapshot;
     }
 
     public List<Person> findAll() {
@@ -26,33 +43,161 @@ public class PeopleService {
         return peopleRepository.findAll();
     }
 
+    /**
+     * All people read straight into DTOs, no entities are hydrated. Served from the
+     * {@link CatalogSnapshot} while it is on.
+     */
+    public List<PersonDTO> findAllDTOs() {
+        log.info("Method findAllDTOs is returning all people...");
+        if (snapshot.isServing()) {
+            return snapshot.allPeople();
+        }
+        return peopleRepository.findAllDTOs();
+    }
+
+    public CursorPage<Person> findPage(int after, int limit) {
+        log.info("Method findPage is returning {} people after id = {}...", limit, after);
+        List<Person> rows = peopleRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, limit + 1));
+        return CursorPage.of(rows, limit, person -> String.valueOf(person.getId()));
+    }
+
+    /**
+     * {@link #findPage} selecting straight into {@link PersonDTO}.
+     */
+    public CursorPage<PersonDTO> findDTOPage(int after, int limit) {
+        log.info("Method findDTOPage is returning {} people after id = {}...", limit, after);
+        List<PersonDTO> rows = peopleRepository.findDTOsAfter(after, PageRequest.of(0, limit + 1));
+        return CursorPage.of(rows, limit, person -> String.valueOf(person.getId()));
+    }
+
+    /**
+     * {@link #findDTOPage} with the books of each person: one query for the page and one {@code IN} query
+     * for the books of all its people, grouped here, whatever the page size.
+     */
+    public CursorPage<PersonWithBooksDTO> findPageWithBooks(int after, int limit) {
+        log.info("Method findPageWithBooks is returning {} people with books after id = {}...", limit, after);
+        CursorPage<PersonDTO> page = CursorPage.of(peopleRepository.findDTOsAfter(after, PageRequest.of(0, limit + 1)),
+                limit, person -> String.valueOf(person.getId()));
+        Map<Integer, List<BookDTO>> books = new HashMap<>();
+        for (PersonDTO person : page.getItems()) {
+            books.put(person.getId(), new ArrayList<>());
+        }
+        if (!books.isEmpty()) {
+            for (Object[] row : booksRepository.findBookColumnsOfPeople(books.keySet())) {
+                books.get((Integer) row[0]).add(new BookDTO((Integer) row[1], (String) row[2], (Calendar) row[3]));
+            }
+        }
+        return page.map(person -> new PersonWithBooksDTO(person.getId(), person.getName(), person.getAge(),
+                person.getEmail(), books.get(person.getId())));
+    }
+
+    /**
+     * People whose name or email contains {@code q}, or starts with it for queries shorter than
+     * {@link SearchPatterns#MIN_SUBSTRING_LENGTH}, best matches first. {@code after} is the offset
+     * cursor of the previous page.
+     */
+    public CursorPage<PersonDTO> search(String q, String after, int limit) {
+        String query = SearchPatterns.normalize(q);
+        int offset = CursorPage.parseOffset(after);
+        log.info("Method search is returning {} people matching '{}' from {}...", limit, query, offset);
+        List<Object[]> rows = peopleRepository.searchByNameOrEmail(query, SearchPatterns.likePattern(query), limit + 1, offset);
+        List<PersonDTO> people = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            people.add(new PersonDTO(((Number) row[0]).intValue(), (String) row[1], ((Number) row[2]).intValue(), (String) row[3]));
+        }
+        return CursorPage.ofOffset(people, limit, offset);
+    }
+
+    /**
+     * Walks the whole table through a forward-only cursor. Rows are read as DTOs, so nothing is
+     * kept in the persistence context and memory stays bounded by the fetch size.
+     */
+    public void forEachPerson(Consumer<PersonDTO> action) {
+        log.info("Method forEachPerson is streaming all people...");
+        try (Stream<PersonDTO> people = peopleRepository.streamAll()) {
+            people.forEach(action);
+        }
+    }
+
+    /**
+     * A detached copy from the {@link CatalogSnapshot} while it is on.
+     */
     public Optional<Person> findOne(int id) {
-        Optional<Person> foundPerson = peopleRepository.findById(id);
+        Optional<Person> foundPerson = snapshot.isServing()
+                ? Optional.ofNullable(snapshot.person(id)).map(CatalogSnapshot.PersonRow::toPerson)
+                : peopleRepository.findById(id);
         log.info("Method findOne is returning person with id = {}...", id);
         return foundPerson;
     }
 
+    /**
+     * Uninitialized proxy carrying only the id, for use as an association target without a SELECT.
+     */
+    public Person getReference(int id) {
+        return peopleRepository.getOne(id);
+    }
+
     @Transactional
     public void save(Person person) {
         peopleRepository.save(person);
+        snapshot.personChanged(person.getId());
         log.info("Method save is keeping person {}...", person);
     }
 
     @Transactional
-    public void update(int id, Person updatedPerson) {
-        updatedPerson.setId(id);
-        peopleRepository.save(updatedPerson);
+    public void saveAll(List<Person> people) {
+        peopleRepository.saveAll(people);
+        for (Person person : people) {
+            snapshot.personChanged(person.getId());
+        }
+        log.info("Method saveAll is keeping {} people...", people.size());
+    }
+
+    /**
+     * Overwrites name, age and email with a single UPDATE, the row isn't read first.
+     * Returns the number of updated rows, 0 if there is no such person.
+     */
+    @Transactional
+    public int update(int id, Person updatedPerson) {
         log.info("Method update is updating person {} with id = {}...", updatedPerson, id);
+        return changed(id, peopleRepository.updateById(id, updatedPerson.getName(), updatedPerson.getAge(),
+                updatedPerson.getEmail()));
     }
 
+    /**
+     * {@link #update(int, Person)} that only applies while the person is still at {@code version}.
+     * Returns 0 if the person doesn't exist or was changed in the meantime.
+     */
     @Transactional
-    public void delete(int id) {
-        peopleRepository.deleteById(id);
+    public int update(int id, Person updatedPerson, int version) {
+        log.info("Method update is updating person {} with id = {} at version {}...", updatedPerson, id, version);
+        return changed(id, peopleRepository.updateByIdAndVersion(id, updatedPerson.getName(), updatedPerson.getAge(),
+                updatedPerson.getEmail(), version));
+    }
+
+    /**
+     * Returns the number of deleted people, 0 if there is no such person.
+     */
+    @Transactional
+    public int delete(int id) {
+        // bulk delete keeps the Book cache region consistent, the FK cascade alone would bypass it
+        booksRepository.deleteByPersonId(id);
         log.info("Method delete is removing person with id = {}...", id);
+        return changed(id, peopleRepository.deletePersonById(id));
     }
 
     public boolean exists(int id) {
         log.info("method exists is checking person with id = {}...", id);
+        if (snapshot.isServing()) {
+            return snapshot.person(id) != null;
+        }
         return peopleRepository.existsById(id);
     }
+
+    private int changed(int id, int rows) {
+        if (rows > 0) {
+            snapshot.personChanged(id);
+        }
+        return rows;
+    }
 }
@@ -0,0 +1,92 @@
+package ru.galeev.springcourse.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the requests in flight that follows their latency, additive increase and multiplicative
+ * decrease like TCP congestion control. The fastest latency seen within {@code probeInterval} is taken as
+ * the latency without queueing; a request that took longer than {@code tolerance} times that, or failed,
+ * means requests are queueing for the database and the limit drops by a tenth. It grows by one after as
+ * many good requests as the limit, about once per round trip, so it doesn't outrun the latency that would
+ * report the queueing. Only requests that ran with at least half the limit in flight move it, light load
+ * says nothing about capacity. With the same minimum and maximum it is a fixed limit.
+ * <p>
+ * Every counter is an atomic updated with CAS; a limit update that loses the race is dropped, the next
+ * request corrects it.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long probeInterval;
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger goodSinceIncrease = new AtomicInteger();
+    private final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong probeStart = new AtomicLong(Long.MIN_VALUE);
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, long probeInterval) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits should be 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.probeInterval = probeInterval;
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    /**
+     * Returns {@code false} without taking a slot if the limit is reached, otherwise the caller has to
+     * {@link #release} it.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a request that took {@code latency} nanoseconds and adjusts the limit.
+     */
+    public void release(long latency, boolean failed, long now) {
+        int current = inFlight.getAndDecrement();
+        long start = probeStart.get();
+        if ((start == Long.MIN_VALUE || now - start >= probeInterval) && probeStart.compareAndSet(start, now)) {
+            // forget the old minimum, it may have been measured on a since changed table or plan
+            minLatency.set(latency);
+        } else {
+            minLatency.accumulateAndGet(latency, Math::min);
+        }
+
+        int currentLimit = limit.get();
+        if (current * 2 < currentLimit) {
+            return;
+        }
+        if (failed || latency > tolerance * minLatency.get()) {
+            if (limit.compareAndSet(currentLimit, Math.max(minLimit, (int) (currentLimit * BACKOFF)))) {
+                goodSinceIncrease.set(0);
+            }
+        } else if (currentLimit < maxLimit && goodSinceIncrease.incrementAndGet() >= currentLimit
+                && limit.compareAndSet(currentLimit, currentLimit + 1)) {
+            goodSinceIncrease.set(0);
+        }
+    }
+
+    public int getLimit() {
+        return limit.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
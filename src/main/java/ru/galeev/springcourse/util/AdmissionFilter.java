@@ -0,0 +1,225 @@
+package ru.galeev.springcourse.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control in front of the handlers. Each client, identified by its remote address, has a
+ * {@link TokenBuckets token bucket} for all its requests and one for each rate-limited route; an empty
+ * bucket is answered with 429 and a {@code Retry-After} of when the next token comes. The DB-heavy routes
+ * each have an {@link AdaptiveConcurrencyLimit}, requests beyond it are shed with 503 before they wait for
+ * a connection. Behind a proxy the remote address is the proxy's unless the container is told to trust
+ * its forwarding headers, which is why rate limits are opt-in.
+ * <p>
+ * Like {@link CompressionFilter} it also runs on the async dispatch: an async request keeps its
+ * concurrency slot until the dispatch that is no longer async.
+ */
+@Slf4j
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final String TOO_MANY = "Too many requests, try again later";
+    private static final String BUSY = "Server is busy, try again later";
+    private static final String SLOT_ATTRIBUTE = AdmissionFilter.class.getName() + ".slot";
+    private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+
+    private final TokenBuckets clientBuckets;
+    private final Map<RequestRoute, TokenBuckets> routeBuckets;
+    private final Map<RequestRoute, AdaptiveConcurrencyLimit> concurrencyLimits;
+    private final String retryAfter;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * {@code clientBuckets} is {@code null} without a rate limit; the first matching route counts, in the
+     * iteration order of the maps.
+     */
+    public AdmissionFilter(TokenBuckets clientBuckets, Map<RequestRoute, TokenBuckets> routeBuckets,
+                           Map<RequestRoute, AdaptiveConcurrencyLimit> concurrencyLimits, String retryAfter,
+                           ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.clientBuckets = clientBuckets;
+        this.routeBuckets = routeBuckets;
+        this.concurrencyLimits = concurrencyLimits;
+        this.retryAfter = retryAfter;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        for (Map.Entry<RequestRoute, AdaptiveConcurrencyLimit> route : concurrencyLimits.entrySet()) {
+            Gauge.builder("concurrency_limit.limit", route.getValue(), AdaptiveConcurrencyLimit::getLimit)
+                    .tag("route", route.getKey().toString())
+                    .register(meterRegistry);
+            Gauge.builder("concurrency_limit.in_flight", route.getValue(), AdaptiveConcurrencyLimit::getInFlight)
+                    .tag("route", route.getKey().toString())
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return clientBuckets == null && routeBuckets.isEmpty() && concurrencyLimits.isEmpty();
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (isAsyncDispatch(request)) {
+            Slot slot = (Slot) request.getAttribute(SLOT_ATTRIBUTE);
+            if (slot == null) {
+                filterChain.doFilter(request, response);
+            } else {
+                holding(request, response, filterChain, slot);
+            }
+            return;
+        }
+        String method = request.getMethod();
+        PathContainer path = PathContainer.parsePath(URL_PATH_HELPER.getPathWithinApplication(request));
+        long now = System.nanoTime();
+
+        // not an API key or anything else the client says about itself, nothing checks those
+        String client = request.getRemoteAddr();
+        TokenBuckets routeBucket = null;
+        for (Map.Entry<RequestRoute, TokenBuckets> route : routeBuckets.entrySet()) {
+            if (route.getKey().matches(method, path)) {
+                long wait = route.getValue().tryAcquire(client, now);
+                if (wait > 0) {
+                    reject(response, HttpStatus.TOO_MANY_REQUESTS, TOO_MANY, seconds(wait), "rate_limit",
+                            route.getKey().toString());
+                    return;
+                }
+                routeBucket = route.getValue();
+                break;
+            }
+        }
+        if (clientBuckets != null) {
+            long wait = clientBuckets.tryAcquire(client, now);
+            if (wait > 0) {
+                // a refused request doesn't cost a token of the route
+                if (routeBucket != null) {
+                    routeBucket.release(client);
+                }
+                reject(response, HttpStatus.TOO_MANY_REQUESTS, TOO_MANY, seconds(wait), "rate_limit", "*");
+                return;
+            }
+        }
+
+        for (Map.Entry<RequestRoute, AdaptiveConcurrencyLimit> route : concurrencyLimits.entrySet()) {
+            if (route.getKey().matches(method, path)) {
+                limited(request, response, filterChain, route.getKey(), route.getValue(), now);
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private void limited(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain,
+                         RequestRoute route, AdaptiveConcurrencyLimit limit, long start) throws ServletException, IOException {
+        if (!limit.tryAcquire()) {
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, BUSY, retryAfter, "concurrency", route.toString());
+            return;
+        }
+        Slot slot = new Slot(limit, start);
+        request.setAttribute(SLOT_ATTRIBUTE, slot);
+        holding(request, response, filterChain, slot);
+    }
+
+    /**
+     * Runs the chain and frees the slot unless the request went async, then it is freed at the end of the
+     * last async dispatch or, should there be none, when the async processing completes.
+     */
+    private void holding(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain, Slot slot)
+            throws ServletException, IOException {
+        boolean completed = false;
+        try {
+            filterChain.doFilter(request, response);
+            completed = true;
+        } finally {
+            if (completed && isAsyncStarted(request)) {
+                request.getAsyncContext().addListener(slot);
+            } else {
+                slot.release(!completed || response.getStatus() >= 500);
+            }
+        }
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, String message, String retryAfter,
+                        String reason, String route) throws IOException {
+        log.debug("{} on {}: {}", status, route, reason);
+        Counter.builder("http.server.requests.rejected")
+                .description("Requests refused by the admission filter")
+                .tag("reason", reason)
+                .tag("route", route)
+                .register(meterRegistry)
+                .increment();
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new PersonErrorResponse(message, System.currentTimeMillis()));
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * A taken concurrency slot, freed exactly once. A timeout or an error counts as a failed request.
+     */
+    private static final class Slot implements AsyncListener {
+        private final AdaptiveConcurrencyLimit limit;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean failed;
+
+        Slot(AdaptiveConcurrencyLimit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+
+        void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                long now = System.nanoTime();
+                limit.release(now - start, failed || this.failed, now);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release(((HttpServletResponse) event.getSuppliedResponse()).getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.galeev.springcourse.util;
+
+/**
+ * A request parameter, header or body the application can't use, answered with 400 and the message.
+ */
+public class BadRequestException extends StacklessException {
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,110 @@
+package ru.galeev.springcourse.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads a JSON array element by element and hands it to {@code saver} in chunks of
+ * {@code batch.size}, each chunk being inserted in its own transaction. Elements that don't map to the
+ * type or are invalid, and failed chunks, are reported and skipped, the rest of the array is still
+ * imported; only a body that isn't JSON at all fails the whole request.
+ */
+@Component
+@Slf4j
+public class BatchImporter {
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int batchSize;
+
+    @Autowired
+    public BatchImporter(ObjectMapper objectMapper, Validator validator, @Value("${batch.size}") int batchSize) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchSize = batchSize;
+    }
+
+    public <T> BatchReportDTO importArray(InputStream body, Class<T> type, Consumer<List<T>> saver) throws IOException {
+        BatchReportDTO report = new BatchReportDTO();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException("Request body should be a JSON array");
+            }
+            JsonStreamContext array = parser.getParsingContext();
+            List<T> batch = new ArrayList<>(batchSize);
+            int index = 0;
+            int batchStart = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                T item;
+                try {
+                    item = objectMapper.readValue(parser, type);
+                } catch (JsonMappingException e) {
+                    report.rejected(index++, 1, e.getOriginalMessage());
+                    skipRestOfElement(parser, array);
+                    continue;
+                }
+                Set<ConstraintViolation<T>> violations = validator.validate(item);
+                if (violations.isEmpty()) {
+                    if (batch.isEmpty()) {
+                        batchStart = index;
+                    }
+                    batch.add(item);
+                } else {
+                    report.rejected(index, 1, violations.iterator().next().getMessage());
+                }
+                index++;
+                if (batch.size() == batchSize) {
+                    flush(batch, batchStart, saver, report);
+                }
+            }
+            flush(batch, batchStart, saver, report);
+        }
+        log.info("Batch import of {} finished: {}", type.getSimpleName(), report);
+        return report;
+    }
+
+    /**
+     * Moves the parser to the last token of the element it failed to map, wherever inside it the mapping
+     * stopped, so that the next token is the next element.
+     */
+    private static void skipRestOfElement(JsonParser parser, JsonStreamContext array) throws IOException {
+        while (parser.getParsingContext() != array) {
+            parser.skipChildren();
+            if (parser.getParsingContext() != array && parser.nextToken() == null) {
+                throw new JsonParseException(parser, "Unexpected end of the array");
+            }
+        }
+    }
+
+    private <T> void flush(List<T> batch, int batchStart, Consumer<List<T>> saver, BatchReportDTO report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            saver.accept(batch);
+            report.inserted(batch.size());
+        } catch (DataAccessException e) {
+            log.warn("Batch starting at {} wasn't inserted: {}", batchStart, e.getMostSpecificCause().getMessage());
+            report.rejected(batchStart, batch.size(), e.getMostSpecificCause().getMessage());
+        }
+        batch.clear();
+    }
+}
@@ -1,6 +1,6 @@
 package ru.galeev.springcourse.util;
 
-public class BookNotCreatedException extends RuntimeException{
+public class BookNotCreatedException extends StacklessException {
     public BookNotCreatedException(String message) {
         super(message);
     }
@@ -1,6 +1,6 @@
 package ru.galeev.springcourse.util;
 
-public class BookNotFoundException extends RuntimeException {
+public class BookNotFoundException extends StacklessException {
     public BookNotFoundException() {
     }
 
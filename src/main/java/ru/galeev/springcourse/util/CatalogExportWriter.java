@@ -0,0 +1,223 @@
+package ru.galeev.springcourse.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+
+/**
+ * Writes export rows straight to the response as they come from the cursor, one line per record and
+ * nothing held back but the output buffer. People are written as {@link #person}, then a
+ * {@link #personBook} per book, then {@link #endPerson}: NDJSON nests the books in the person, CSV repeats
+ * the person columns on every book line and leaves the book columns empty for a person without books.
+ */
+public abstract class CatalogExportWriter implements Closeable {
+    public static CatalogExportWriter create(CatalogFormat format, OutputStream out, JsonFactory jsonFactory) throws IOException {
+        return format == CatalogFormat.CSV ? new Csv(out) : new Ndjson(jsonFactory.createGenerator(out));
+    }
+
+    public abstract void startBooks() throws IOException;
+
+    public abstract void book(int id, String name, Date created, int personId, String personName, String personEmail) throws IOException;
+
+    public abstract void startPeople() throws IOException;
+
+    public abstract void person(int id, String name, int age, String email) throws IOException;
+
+    public abstract void personBook(int id, String name, Date created) throws IOException;
+
+    public abstract void endPerson() throws IOException;
+
+    private static String date(Date date) {
+        return date == null ? null : date.toString();
+    }
+
+    private static final class Ndjson extends CatalogExportWriter {
+        private final JsonGenerator generator;
+
+        Ndjson(JsonGenerator generator) {
+            this.generator = generator;
+            // the newline after each record separates them
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void startBooks() {
+        }
+
+        @Override
+        public void book(int id, String name, Date created, int personId, String personName, String personEmail) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("name", name);
+            generator.writeStringField("created", date(created));
+            generator.writeNumberField("personId", personId);
+            generator.writeStringField("personName", personName);
+            generator.writeStringField("personEmail", personEmail);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void startPeople() {
+        }
+
+        @Override
+        public void person(int id, String name, int age, String email) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("name", name);
+            generator.writeNumberField("age", age);
+            generator.writeStringField("email", email);
+            generator.writeArrayFieldStart("books");
+        }
+
+        @Override
+        public void personBook(int id, String name, Date created) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("name", name);
+            generator.writeStringField("created", date(created));
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void endPerson() throws IOException {
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    /**
+     * RFC 4180: CRLF line ends, a field with a comma, quote or line break is quoted, quotes doubled. A line
+     * is built in a reused buffer and handed to the encoder in one write.
+     */
+    private static final class Csv extends CatalogExportWriter {
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder(256);
+        private char[] chars = new char[256];
+        private int personId;
+        private String personName;
+        private int personAge;
+        private String personEmail;
+        private boolean personHasBooks;
+
+        Csv(OutputStream out) {
+            this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void startBooks() throws IOException {
+            line.append("id,name,created,person_id,person_name,person_email");
+            endLine();
+        }
+
+        @Override
+        public void book(int id, String name, Date created, int personId, String personName, String personEmail) throws IOException {
+            line.append(id);
+            field(name);
+            field(date(created));
+            line.append(',').append(personId);
+            field(personName);
+            field(personEmail);
+            endLine();
+        }
+
+        @Override
+        public void startPeople() throws IOException {
+            line.append("id,name,age,email,book_id,book_name,book_created");
+            endLine();
+        }
+
+        @Override
+        public void person(int id, String name, int age, String email) {
+            personId = id;
+            personName = name;
+            personAge = age;
+            personEmail = email;
+            personHasBooks = false;
+        }
+
+        @Override
+        public void personBook(int id, String name, Date created) throws IOException {
+            personColumns();
+            line.append(',').append(id);
+            field(name);
+            field(date(created));
+            endLine();
+            personHasBooks = true;
+        }
+
+        @Override
+        public void endPerson() throws IOException {
+            if (!personHasBooks) {
+                personColumns();
+                line.append(",,,");
+                endLine();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        private void personColumns() {
+            line.append(personId);
+            field(personName);
+            line.append(',').append(personAge);
+            field(personEmail);
+        }
+
+        /**
+         * The separating comma and the field.
+         */
+        private void field(String value) {
+            line.append(',');
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        private void endLine() throws IOException {
+            line.append("\r\n");
+            int length = line.length();
+            if (length > chars.length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            line.getChars(0, length, chars, 0);
+            writer.write(chars, 0, length);
+            line.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.http.MediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Formats of the {@code /api/export} and {@code /api/import} endpoints, chosen with {@code format=}.
+ */
+public enum CatalogFormat {
+    NDJSON(MediaType.parseMediaType("application/x-ndjson")),
+    CSV(new MediaType("text", "csv", StandardCharsets.UTF_8));
+
+    private final MediaType mediaType;
+
+    CatalogFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public static CatalogFormat of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Format should be ndjson or csv");
+        }
+    }
+}
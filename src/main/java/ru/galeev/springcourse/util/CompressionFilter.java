@@ -0,0 +1,331 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips response bodies of the configured media types once they reach {@code minSize} bytes, for clients
+ * that accept it. The first {@code minSize} bytes are held back, so a small body goes out as is with a
+ * {@code Content-Length} and a large one is compressed from its first byte. Flushes of a compressed
+ * body are sync flushes, a streamed response still reaches the client page by page. A strong
+ * {@code ETag} of a compressed body is made weak. Every response of those types gets
+ * {@code Vary: Accept-Encoding}, compressed or not, so a cache doesn't hand the plain copy to a client
+ * that accepts gzip or the other way round.
+ * <p>
+ * Like {@link org.springframework.web.filter.ShallowEtagHeaderFilter} it also runs on the async dispatch
+ * and only finishes the body once the request is no longer async.
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+    private final int minSize;
+    private final List<MediaType> mediaTypes;
+
+    public CompressionFilter(int minSize, List<MediaType> mediaTypes) {
+        this.minSize = minSize;
+        this.mediaTypes = mediaTypes;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        HttpServletResponse responseToUse = response;
+        if (!isAsyncDispatch(request) && !(response instanceof GzipResponseWrapper)) {
+            boolean gzipAccepted = acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))
+                    && !"HEAD".equals(request.getMethod());
+            responseToUse = new GzipResponseWrapper(response, gzipAccepted);
+        }
+        filterChain.doFilter(request, responseToUse);
+        if (!isAsyncStarted(request) && responseToUse instanceof GzipResponseWrapper) {
+            ((GzipResponseWrapper) responseToUse).finish();
+        }
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip") || parts[0].trim().equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.regionMatches(true, 0, "q=", 0, 2) && quality(param.substring(2)) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The weight of a coding, 0 if it is malformed or out of range: a client that sent one gets no gzip
+     * rather than a 500.
+     */
+    private static double quality(String value) {
+        try {
+            double quality = Double.parseDouble(value.trim());
+            return quality >= 0 && quality <= 1 ? quality : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        for (MediaType candidate : mediaTypes) {
+            if (candidate.includes(mediaType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Without gzip the body isn't held back, it only passes through to add the {@code Vary} header.
+     */
+    private final class GzipResponseWrapper extends HttpServletResponseWrapper {
+        private final boolean gzipAccepted;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(minSize);
+        private OutputStream target;
+        private GZIPOutputStream gzip;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        GzipResponseWrapper(HttpServletResponse response, boolean gzipAccepted) {
+            super(response);
+            this.gzipAccepted = gzipAccepted;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        GzipResponseWrapper.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if (target != null) {
+                            target.flush();
+                        }
+                    }
+
+                    // non-blocking writes go by the container's stream, the one the bytes end up in
+                    @Override
+                    public boolean isReady() {
+                        try {
+                            return getResponse().getOutputStream().isReady();
+                        } catch (IOException e) {
+                            return false;
+                        }
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        try {
+                            getResponse().getOutputStream().setWriteListener(writeListener);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            // committing now would send the headers before it is known whether the body gets compressed
+            if (writer != null) {
+                writer.flush();
+            }
+            if (target == null && !gzipAccepted) {
+                start(false);
+            }
+            if (target != null) {
+                target.flush();
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (buffer != null) {
+                buffer.reset();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (buffer != null) {
+                buffer.reset();
+            }
+            contentLength = -1;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (target != null) {
+                target.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if (!gzipAccepted || buffer.size() >= minSize) {
+                start(gzipAccepted);
+            }
+        }
+
+        /**
+         * Sends the headers and what is held back, gzipped if {@code compress} and the type allows it.
+         */
+        private void start(boolean compress) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            boolean compressible = vary(response);
+            if (compress && compressible) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                // the gzipped bytes aren't the ones the strong tag was made for, only equivalent to them
+                String eTag = response.getHeader(HttpHeaders.ETAG);
+                if (eTag != null && !eTag.startsWith("W/")) {
+                    response.setHeader(HttpHeaders.ETAG, "W/" + eTag);
+                }
+                gzip = new GZIPOutputStream(response.getOutputStream(), 8192, true);
+                target = gzip;
+            } else {
+                if (contentLength >= 0) {
+                    response.setContentLengthLong(contentLength);
+                }
+                target = response.getOutputStream();
+            }
+            buffer.writeTo(target);
+            buffer = null;
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (target == null) {
+                if (buffer.size() == 0) {
+                    vary((HttpServletResponse) getResponse());
+                    if (contentLength >= 0) {
+                        getResponse().setContentLengthLong(contentLength);
+                    }
+                    return;
+                }
+                contentLength = buffer.size();
+                start(false);
+            }
+            if (gzip != null) {
+                gzip.finish();
+            }
+            target.flush();
+        }
+
+        /**
+         * Adds {@code Vary: Accept-Encoding} if the body could be gzipped, returns whether it could. A body
+         * the application already encoded is left alone.
+         */
+        private boolean vary(HttpServletResponse response) {
+            if (!isCompressible(getContentType()) || response.getHeader(HttpHeaders.CONTENT_ENCODING) != null) {
+                return false;
+            }
+            for (String vary : response.getHeaders(HttpHeaders.VARY)) {
+                for (String name : vary.split(",")) {
+                    if (name.trim().equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING) || name.trim().equals("*")) {
+                        return true;
+                    }
+                }
+            }
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            return true;
+        }
+    }
+}
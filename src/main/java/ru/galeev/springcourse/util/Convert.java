@@ -1,27 +1,84 @@
 package ru.galeev.springcourse.util;
 
-import org.modelmapper.ModelMapper;
 import ru.galeev.springcourse.dto.BookDTO;
 import ru.galeev.springcourse.dto.PersonDTO;
 import ru.galeev.springcourse.models.Book;
 import ru.galeev.springcourse.models.Person;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written field-by-field mappers between entities and DTOs. They replace ModelMapper,
+ * which resolved properties reflectively on every call.
+ */
 public class Convert {
-    private static final ModelMapper modelMapper = new ModelMapper();
 
     public static Person convertToPerson(PersonDTO personDTO) {
-        return modelMapper.map(personDTO, Person.class);
+        Person person = new Person();
+        person.setId(personDTO.getId());
+        person.setName(personDTO.getName());
+        person.setAge(personDTO.getAge());
+        person.setEmail(personDTO.getEmail());
+        return person;
     }
 
     public static PersonDTO convertToPersonDTO(Person person) {
-        return modelMapper.map(person, PersonDTO.class);
+        PersonDTO personDTO = new PersonDTO();
+        personDTO.setId(person.getId());
+        personDTO.setName(person.getName());
+        personDTO.setAge(person.getAge());
+        personDTO.setEmail(person.getEmail());
+        return personDTO;
     }
 
     public static BookDTO convertToBookDTO(Book book) {
-        return modelMapper.map(book, BookDTO.class);
+        BookDTO bookDTO = new BookDTO();
+        bookDTO.setId(book.getId());
+        bookDTO.setPerson(book.getPerson());
+        bookDTO.setName(book.getName());
+        bookDTO.setCreated(book.getCreated());
+        return bookDTO;
     }
 
     public static Book convertToBook(BookDTO bookDTO) {
-        return modelMapper.map(bookDTO, Book.class);
+        Book book = new Book();
+        book.setId(bookDTO.getId());
+        book.setPerson(bookDTO.getPerson());
+        book.setName(bookDTO.getName());
+        book.setCreated(bookDTO.getCreated());
+        return book;
+    }
+
+    public static List<PersonDTO> convertToPersonDTOs(List<Person> people) {
+        List<PersonDTO> result = new ArrayList<>(people.size());
+        for (Person person : people) {
+            result.add(convertToPersonDTO(person));
+        }
+        return result;
+    }
+
+    public static List<BookDTO> convertToBookDTOs(List<Book> books) {
+        List<BookDTO> result = new ArrayList<>(books.size());
+        for (Book book : books) {
+            result.add(convertToBookDTO(book));
+        }
+        return result;
+    }
+
+    public static List<Person> convertToPeople(List<PersonDTO> personDTOs) {
+        List<Person> result = new ArrayList<>(personDTOs.size());
+        for (PersonDTO personDTO : personDTOs) {
+            result.add(convertToPerson(personDTO));
+        }
+        return result;
+    }
+
+    public static List<Book> convertToBooks(List<BookDTO> bookDTOs) {
+        List<Book> result = new ArrayList<>(bookDTOs.size());
+        for (BookDTO bookDTO : bookDTOs) {
+            result.add(convertToBook(bookDTO));
+        }
+        return result;
     }
 }
@@ -0,0 +1,56 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.util.DigestUtils;
+import ru.galeev.springcourse.dto.BookDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Strong entity tags: the {@code @Version} of a person or book, e.g. {@code "3"}, or a content hash
+ * for collections.
+ */
+public final class ETags {
+    private ETags() {
+    }
+
+    public static String of(int version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * MD5 over the fields of every book, so it changes with any rename, addition or removal and not
+     * with anything else. Computed from the DTOs, the JSON body is never rendered for it.
+     */
+    public static String of(List<BookDTO> books) {
+        StringBuilder content = new StringBuilder(books.size() * 32);
+        for (BookDTO book : books) {
+            content.append(book.getId()).append('\u0000').append(book.getName()).append('\u0000')
+                    .append(book.getCreated() == null ? "" : book.getCreated().getTimeInMillis()).append('\n');
+        }
+        return "\"" + DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * Version named by an {@code If-Match} header, or {@code null} when the header is absent or {@code *}
+     * and the update should not be conditional. A weak tag is accepted too: it is the version tag of a
+     * response that {@link CompressionFilter} gzipped, it names the same version.
+     */
+    public static Integer parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            throw new BadRequestException("If-Match should be an ETag of this resource, like \"3\"");
+        }
+        try {
+            return Integer.valueOf(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("If-Match should be an ETag of this resource, like \"3\"");
+        }
+    }
+}
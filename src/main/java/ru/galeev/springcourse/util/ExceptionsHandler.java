@@ -1,25 +1,136 @@
 package ru.galeev.springcourse.util;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Maps every exception to a status and a {@link PersonErrorResponse}. Expected outcomes, a missing
+ * resource, a conflict or a bad request, are logged at debug only; just unexpected exceptions are logged
+ * at error, with their stack trace, and answered with 500. Spring MVC's own exceptions keep the statuses
+ * {@link ResponseEntityExceptionHandler} gives them.
+ */
 @ControllerAdvice
 @Slf4j
-public class ExceptionsHandler {
+public class ExceptionsHandler extends ResponseEntityExceptionHandler {
+    private static final String BUSY = "Server is busy, try again later";
+    private static final String DUPLICATE = "A record with the same unique value already exists";
+    private static final String INVALID_VALUE = "A required value is missing or a value is too long";
+    private static final String CONSTRAINT_VIOLATION = "The change conflicts with the stored data";
+
+    private final String retryAfter;
+
+    public ExceptionsHandler(@Value("${async.retry_after}") String retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    @ExceptionHandler({PersonNotFoundException.class, BookNotFoundException.class})
+    public ResponseEntity<PersonErrorResponse> notFoundHandler(RuntimeException e) {
+        log.debug("Not found: {}", e.getMessage());
+        return error(e.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(BookNotCreatedException.class)
+    public ResponseEntity<PersonErrorResponse> conflictHandler(RuntimeException e) {
+        log.debug("Conflict: {}", e.getMessage());
+        return error(e.getMessage(), HttpStatus.CONFLICT);
+    }
+
+    /**
+     * A constraint rejected the write. The driver's message names tables, columns and values, so only
+     * the log gets it: a duplicate of a unique value is a conflict, a missing or too long value a bad
+     * request, anything else, e.g. a book of a person that doesn't exist, a conflict with a generic message.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<PersonErrorResponse> integrityViolationHandler(DataIntegrityViolationException e) {
+        log.debug("Integrity violation: {}", e.getMostSpecificCause().getMessage());
+        String sqlState = SqlStates.of(e);
+        if (SqlStates.UNIQUE_VIOLATION.equals(sqlState)) {
+            return error(DUPLICATE, HttpStatus.CONFLICT);
+        }
+        if (SqlStates.NOT_NULL_VIOLATION.equals(sqlState) || SqlStates.STRING_DATA_RIGHT_TRUNCATION.equals(sqlState)) {
+            return error(INVALID_VALUE, HttpStatus.BAD_REQUEST);
+        }
+        return error(CONSTRAINT_VIOLATION, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler({PersonNotCreatedException.class, BadRequestException.class, JsonProcessingException.class})
+    public ResponseEntity<PersonErrorResponse> badRequestHandler(Exception e) {
+        log.debug("Bad request: {}", e.getMessage());
+        return error(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * The {@code If-Match} version of a conditional update is no longer the current one.
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<PersonErrorResponse> versionConflictHandler(RuntimeException e) {
+        log.debug("Precondition failed: {}", e.getMessage());
+        return error(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
+    }
+
+    /**
+     * The async executor's queue is full.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<PersonErrorResponse> overloadExceptionHandler(RuntimeException e) {
+        PersonErrorResponse response = new PersonErrorResponse(BUSY, System.currentTimeMillis());
+        log.error("{}, {}", e.getClass().getSimpleName(), response.getTimestamp());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, retryAfter).body(response);
+    }
+
+    /**
+     * The request waited longer than {@code async.timeout}. Nothing can be sent any more once a streamed
+     * body has started.
+     */
+    @Override
+    protected ResponseEntity<Object> handleAsyncRequestTimeoutException(AsyncRequestTimeoutException ex, HttpHeaders headers,
+                                                                        HttpStatus status, WebRequest webRequest) {
+        if (webRequest instanceof ServletWebRequest && ((ServletWebRequest) webRequest).getResponse() != null
+                && ((ServletWebRequest) webRequest).getResponse().isCommitted()) {
+            return null;
+        }
+        PersonErrorResponse response = new PersonErrorResponse(BUSY, System.currentTimeMillis());
+        log.error("{}, {}", ex.getClass().getSimpleName(), response.getTimestamp());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, retryAfter).body(response);
+    }
+
+    @Override
+    protected ResponseEntity<Object> handleExceptionInternal(Exception ex, Object body, HttpHeaders headers,
+                                                             HttpStatus status, WebRequest request) {
+        log.debug("{}: {}", status, ex.getMessage());
+        return new ResponseEntity<>(body != null ? body : new PersonErrorResponse(ex.getMessage(), System.currentTimeMillis()),
+                headers, status);
+    }
 
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<PersonErrorResponse> globalExceptionHandler(RuntimeException e) {
+    public ResponseEntity<PersonErrorResponse> globalExceptionHandler(Exception e) {
         PersonErrorResponse response = new PersonErrorResponse(e.getMessage(), System.currentTimeMillis());
-        log.error("{}, {}", e.getMessage(), System.currentTimeMillis());
+        log.error("Unexpected exception, {}", response.getTimestamp(), e);
+
+        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
 
-        return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+    private static ResponseEntity<PersonErrorResponse> error(String message, HttpStatus status) {
+        return new ResponseEntity<>(new PersonErrorResponse(message, System.currentTimeMillis()), status);
     }
 
     public static void handler(BindingResult bindingResult) {
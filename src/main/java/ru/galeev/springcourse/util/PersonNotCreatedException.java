@@ -1,6 +1,6 @@
 package ru.galeev.springcourse.util;
 
-public class PersonNotCreatedException extends RuntimeException {
+public class PersonNotCreatedException extends StacklessException {
     public PersonNotCreatedException(String message) {
         super(message);
     }
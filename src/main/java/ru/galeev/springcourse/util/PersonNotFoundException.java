@@ -1,6 +1,6 @@
 package ru.galeev.springcourse.util;
 
-public class PersonNotFoundException extends RuntimeException{
+public class PersonNotFoundException extends StacklessException {
     public PersonNotFoundException() {
 
     }
@@ -0,0 +1,30 @@
+package ru.galeev.springcourse.util;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+
+/**
+ * Keeps what {@link ReplicaRoutingDataSource} reads from a replica out of the second-level and query caches.
+ * A read-only transaction still reads from the caches, but what it loads from the database isn't put into
+ * them: a lagging replica would otherwise cache rows older than the ones the primary has, and hand them,
+ * and ETags made from their versions, to every later request until they are evicted. The caches are filled
+ * by the writes, on the primary.
+ */
+public class ReplicaReadJpaDialect extends HibernateJpaDialect {
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (definition.isReadOnly()) {
+            // the store mode, not only the session's CacheMode: find() overrides that with the JPA properties;
+            // the entity manager only lives as long as the transaction, the mode needs no resetting
+            entityManager.setProperty(AvailableSettings.JPA_SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        }
+        return transactionData;
+    }
+}
@@ -0,0 +1,151 @@
+package ru.galeev.springcourse.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends connections of read-only transactions to a replica and everything else to the primary. Which
+ * transaction is running is only known once it has started, so this has to sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, which asks for the connection
+ * at the first statement.
+ * <p>
+ * Replicas are picked round-robin or by the fewest active connections. One that fails to hand out a
+ * connection is skipped until the next health check succeeds, the connection comes from the primary
+ * meanwhile; with no healthy replica reads go to the primary too. Replicas lag behind the primary, a
+ * read-only transaction may not see a write that has just committed. What it reads isn't put into the
+ * Hibernate caches, see {@link ReplicaReadJpaDialect}, so the lag doesn't outlive the transaction.
+ * <p>
+ * Closing it closes the replica pools, the primary is left to its owner.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_CONNECTIONS
+    }
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Balancing balancing;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthCheck;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, Balancing balancing,
+                                    long checkIntervalMillis) {
+        this.primary = primary;
+        for (HikariDataSource replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.balancing = balancing;
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? pick() : null;
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            replica.down(e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("Only the configured credentials are supported");
+    }
+
+    /**
+     * A healthy replica, {@code null} if there is none.
+     */
+    private Replica pick() {
+        int size = replicas.size();
+        if (balancing == Balancing.LEAST_CONNECTIONS) {
+            Replica best = null;
+            int fewest = Integer.MAX_VALUE;
+            for (Replica replica : replicas) {
+                int active = replica.activeConnections();
+                if (replica.healthy && active < fewest) {
+                    best = replica;
+                    fewest = active;
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (!connection.isValid(1)) {
+                    throw new SQLException("Connection isn't valid");
+                }
+                if (!replica.healthy) {
+                    log.warn("Replica {} is back", replica.dataSource.getPoolName());
+                    replica.healthy = true;
+                }
+            } catch (SQLException e) {
+                replica.down(e);
+            } catch (RuntimeException e) {
+                log.error("Health check of replica {} failed", replica.dataSource.getPoolName(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        healthCheck.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy = true;
+
+        Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        int activeConnections() {
+            return dataSource.getHikariPoolMXBean() == null ? 0 : dataSource.getHikariPoolMXBean().getActiveConnections();
+        }
+
+        void down(SQLException e) {
+            if (healthy) {
+                log.warn("Replica {} is skipped until it passes a health check: {}", dataSource.getPoolName(), e.getMessage());
+                healthy = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * An HTTP method and a path pattern, {@code GET /api/people} or {@code /api/export/**} for any method, to
+ * pick requests before they reach the handler mapping. The pattern is parsed once into a
+ * {@link PathPattern}, matching doesn't tokenize it again like {@code AntPathMatcher} does.
+ */
+public final class RequestRoute {
+    private final String method;
+    private final PathPattern pattern;
+
+    private RequestRoute(String method, String pattern) {
+        this.method = method;
+        this.pattern = PathPatternParser.defaultInstance.parse(pattern);
+    }
+
+    public static RequestRoute parse(String route) {
+        String[] parts = route.trim().split("\\s+");
+        if (parts.length == 1 && parts[0].startsWith("/")) {
+            return new RequestRoute(null, parts[0]);
+        }
+        if (parts.length == 2 && parts[1].startsWith("/")) {
+            return new RequestRoute(parts[0].toUpperCase(), parts[1]);
+        }
+        throw new IllegalArgumentException("Route should be [METHOD] /path, not '" + route + "'");
+    }
+
+    /**
+     * {@code path} is the path within the application, without the query string, parsed once for all routes.
+     */
+    public boolean matches(String method, PathContainer path) {
+        return (this.method == null || this.method.equals(method)) && pattern.matches(path);
+    }
+
+    @Override
+    public String toString() {
+        return method == null ? pattern.getPatternString() : method + " " + pattern.getPatternString();
+    }
+}
@@ -0,0 +1,41 @@
+package ru.galeev.springcourse.util;
+
+/**
+ * Turns a search query into the {@code ILIKE} pattern the {@code pg_trgm} indexes serve.
+ */
+public final class SearchPatterns {
+    /**
+     * Shorter queries only match at the start of the value, a substring of one or two characters has no
+     * trigram to narrow the index scan down.
+     */
+    public static final int MIN_SUBSTRING_LENGTH = 3;
+
+    private SearchPatterns() {
+    }
+
+    public static String normalize(String q) {
+        if (q == null || q.trim().isEmpty()) {
+            throw new BadRequestException("Search query q should not be empty");
+        }
+        return q.trim();
+    }
+
+    /**
+     * {@code %q%}, or {@code q%} for short queries, with the wildcards and the escape character in
+     * {@code q} matched literally.
+     */
+    public static String likePattern(String q) {
+        StringBuilder pattern = new StringBuilder(q.length() + 4);
+        if (q.length() >= MIN_SUBSTRING_LENGTH) {
+            pattern.append('%');
+        }
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+}
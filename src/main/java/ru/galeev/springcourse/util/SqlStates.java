@@ -0,0 +1,29 @@
+package ru.galeev.springcourse.util;
+
+import java.sql.SQLException;
+
+/**
+ * The SQLSTATE codes the application tells apart, the same in PostgreSQL and H2. Clients get a reason
+ * chosen by code, never the driver's message, which names tables, columns and values.
+ */
+public final class SqlStates {
+    public static final String UNIQUE_VIOLATION = "23505";
+    public static final String FOREIGN_KEY_VIOLATION = "23503";
+    public static final String NOT_NULL_VIOLATION = "23502";
+    public static final String STRING_DATA_RIGHT_TRUNCATION = "22001";
+
+    private SqlStates() {
+    }
+
+    /**
+     * SQLSTATE of the first {@link SQLException} in the cause chain, {@code null} if there is none.
+     */
+    public static String of(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null) {
+                return ((SQLException) cause).getSQLState();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.galeev.springcourse.util;
+
+/**
+ * Base of the exceptions for expected outcomes, a missing person or book or an invalid request. They are
+ * answered with a 4xx and never logged with a stack trace, so none is captured: filling it in walks the
+ * whole servlet and proxy stack and would dominate the cost of a 404.
+ */
+public abstract class StacklessException extends RuntimeException {
+    protected StacklessException() {
+        super(null, null, false, false);
+    }
+
+    protected StacklessException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,27 @@
+package ru.galeev.springcourse.util;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so that
+ * {@link RequestMetricsInterceptor} can record how many queries each request ran.
+ */
+public class StatementCounter implements StatementInspector {
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * Returns the number of statements since the previous call and starts counting from zero.
+     */
+    public static int reset() {
+        int[] count = COUNT.get();
+        int statements = count[0];
+        count[0] = 0;
+        return statements;
+    }
+}
@@ -0,0 +1,29 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles {@code StreamingResponseBody} return values with the {@link StreamingResponseBodyHandler}. Custom
+ * return value handlers only come after Spring's own, which would take them first, so it goes in front of
+ * the defaults once they are set up.
+ */
+public class StreamingHandlerAdapter extends RequestMappingHandlerAdapter {
+    private final StreamingResponseBodyHandler streamingHandler;
+
+    public StreamingHandlerAdapter(StreamingResponseBodyHandler streamingHandler) {
+        this.streamingHandler = streamingHandler;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+        handlers.add(streamingHandler);
+        handlers.addAll(getReturnValueHandlers());
+        setReturnValueHandlers(handlers);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.galeev.springcourse.util;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBodyReturnValueHandler;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link StreamingResponseBody} like Spring does, but on its own executor and with its own timeout
+ * instead of the MVC async defaults: a stream takes as long as the client needs to read it, it would be cut
+ * off at {@code mvc.async_timeout}, and it would hold one of the few {@code asyncExecutor} threads the
+ * short async requests share. A timeout of 0 is none, a client that went away fails the next write.
+ */
+public class StreamingResponseBodyHandler extends StreamingResponseBodyReturnValueHandler {
+    private final long timeout;
+    private final AsyncTaskExecutor executor;
+
+    public StreamingResponseBodyHandler(long timeout, AsyncTaskExecutor executor) {
+        this.timeout = timeout;
+        this.executor = executor;
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        if (returnValue == null) {
+            mavContainer.setRequestHandled(true);
+            return;
+        }
+        HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+        ServletServerHttpResponse outputMessage = new ServletServerHttpResponse(response);
+        if (returnValue instanceof ResponseEntity) {
+            ResponseEntity<?> responseEntity = (ResponseEntity<?>) returnValue;
+            response.setStatus(responseEntity.getStatusCodeValue());
+            outputMessage.getHeaders().putAll(responseEntity.getHeaders());
+            returnValue = responseEntity.getBody();
+            if (returnValue == null) {
+                mavContainer.setRequestHandled(true);
+                outputMessage.flush();
+                return;
+            }
+        }
+        ShallowEtagHeaderFilter.disableContentCaching(webRequest.getNativeRequest(ServletRequest.class));
+
+        StreamingResponseBody body = (StreamingResponseBody) returnValue;
+        OutputStream out = outputMessage.getBody();
+        WebAsyncTask<Void> task = new WebAsyncTask<>(timeout, executor, () -> {
+            body.writeTo(out);
+            out.flush();
+            return null;
+        });
+        WebAsyncUtils.getAsyncManager(webRequest).startCallableProcessing(task, mavContainer);
+    }
+}
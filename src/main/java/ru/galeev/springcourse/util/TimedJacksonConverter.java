@@ -0,0 +1,44 @@
+package ru.galeev.springcourse.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson converter that records how long each response body takes to write, tagged with the format of
+ * the mapper: {@code json}, {@code smile} or {@code cbor}.
+ */
+public class TimedJacksonConverter extends AbstractJackson2HttpMessageConverter {
+    private final Timer timer;
+
+    public TimedJacksonConverter(ObjectMapper objectMapper, List<MediaType> supportedMediaTypes, MeterRegistry meterRegistry) {
+        super(objectMapper);
+        setSupportedMediaTypes(supportedMediaTypes);
+        this.timer = Timer.builder("http.server.serialization")
+                .description("Time spent writing response bodies")
+                .tag("format", objectMapper.getFactory().getFormatName().toLowerCase(Locale.ROOT))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long start = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
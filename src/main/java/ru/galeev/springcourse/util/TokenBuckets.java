@@ -0,0 +1,79 @@
+package ru.galeev.springcourse.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One token bucket per key, refilled with {@code rate} tokens per second and holding at most {@code burst}.
+ * A bucket is a single {@link AtomicLong}, the time at which it would be empty if nothing else was taken
+ * (GCRA, the generic cell rate algorithm): taking a token is one CAS, no lock and no refill thread. A bucket
+ * that is full again is the same as a new one, so once there are {@code maxKeys} buckets the full ones are
+ * dropped, at most once a second. Keys that still don't fit share one overflow bucket.
+ */
+public class TokenBuckets {
+    private final long interval;
+    private final long window;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong lastEviction = new AtomicLong(Long.MIN_VALUE);
+
+    public TokenBuckets(double rate, int burst, int maxKeys) {
+        if (rate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate should be positive and burst at least 1");
+        }
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.window = interval * burst;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Takes a token from the bucket of {@code key}. Returns 0 if there was one, otherwise how many
+     * nanoseconds until the next one, nothing is taken then.
+     */
+    public long tryAcquire(String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = newBucket(key, now);
+        }
+        while (true) {
+            long emptyAt = bucket.get();
+            long next = Math.max(emptyAt, now) + interval;
+            long wait = next - now - window;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(emptyAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token that {@link #tryAcquire} took from the bucket of {@code key}, when the request
+     * was refused for another reason after all.
+     */
+    public void release(String key) {
+        AtomicLong bucket = buckets.get(key);
+        // a bucket that was just taken from isn't full, it can't have been evicted: no bucket means overflow
+        (bucket == null ? overflow : bucket).addAndGet(-interval);
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private AtomicLong newBucket(String key, long now) {
+        if (buckets.size() >= maxKeys) {
+            long last = lastEviction.get();
+            if ((last == Long.MIN_VALUE || now - last >= TimeUnit.SECONDS.toNanos(1)) && lastEviction.compareAndSet(last, now)) {
+                buckets.values().removeIf(bucket -> bucket.get() <= now);
+            }
+            if (buckets.size() >= maxKeys) {
+                return overflow;
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+}
@@ -0,0 +1,109 @@
+package ru.galeev.springcourse.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the body of every synchronous handler method as a {@link Callable} on the MVC async executor, so
+ * with a virtual-thread executor the handler and its {@code @Transactional} service calls run on a
+ * virtual thread and the container thread goes back to the pool. Arguments are still resolved and
+ * validated on the container thread, the result is written on the async dispatch. A handler that reads the
+ * request or writes the response itself, an import or an export, streams for as long as the client
+ * takes, it gets the {@code streamTimeout} instead of {@code mvc.async_timeout}.
+ * <p>
+ * Nothing bounds the virtual threads: the Hikari pool is the concurrency limit, a request that cannot
+ * get a connection within {@code hikari.connection_timeout} fails instead of queueing.
+ */
+@Slf4j
+public class VirtualThreadHandlerAdapter extends StreamingHandlerAdapter {
+    private final long streamTimeout;
+
+    public VirtualThreadHandlerAdapter(StreamingResponseBodyHandler streamingHandler, long streamTimeout) {
+        super(streamingHandler);
+        this.streamTimeout = streamTimeout;
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} looked up reflectively, the code is compiled
+     * for Java 8. Returns {@code null} when the running JVM has no virtual threads.
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on Java {}, requests stay on container threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    @Override
+    protected ServletInvocableHandlerMethod createInvocableHandlerMethod(HandlerMethod handlerMethod) {
+        if (isAsync(handlerMethod.getReturnType().getParameterType())) {
+            return super.createInvocableHandlerMethod(handlerMethod);
+        }
+        return new OffloadedHandlerMethod(handlerMethod, streams(handlerMethod) ? streamTimeout : null);
+    }
+
+    private static boolean streams(HandlerMethod handlerMethod) {
+        for (MethodParameter parameter : handlerMethod.getMethodParameters()) {
+            Class<?> type = parameter.getParameterType();
+            if (ServletRequest.class.isAssignableFrom(type) || ServletResponse.class.isAssignableFrom(type)
+                    || InputStream.class.isAssignableFrom(type) || OutputStream.class.isAssignableFrom(type)
+                    || Reader.class.isAssignableFrom(type) || Writer.class.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAsync(Class<?> returnType) {
+        return Callable.class.isAssignableFrom(returnType)
+                || WebAsyncTask.class.isAssignableFrom(returnType)
+                || DeferredResult.class.isAssignableFrom(returnType)
+                || ListenableFuture.class.isAssignableFrom(returnType)
+                || CompletionStage.class.isAssignableFrom(returnType)
+                || ResponseBodyEmitter.class.isAssignableFrom(returnType)
+                || StreamingResponseBody.class.isAssignableFrom(returnType);
+    }
+
+    private static class OffloadedHandlerMethod extends ServletInvocableHandlerMethod {
+        // null for the MVC default
+        private final Long timeout;
+
+        OffloadedHandlerMethod(HandlerMethod handlerMethod, Long timeout) {
+            super(handlerMethod);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public Object invokeForRequest(NativeWebRequest request, ModelAndViewContainer mavContainer,
+                                       Object... providedArgs) throws Exception {
+            Object[] args = getMethodArgumentValues(request, mavContainer, providedArgs);
+            Callable<Object> callable = () -> doInvoke(args);
+            return timeout == null ? callable : new WebAsyncTask<>(timeout, callable);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ru.geleev.sprongcourse.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.galeev.springcourse.config.SpringConfig;
+import ru.galeev.springcourse.controllers.BookController;
+import ru.galeev.springcourse.controllers.PeopleRestController;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.services.BookWriteQueue;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.PeopleService;
+import ru.galeev.springcourse.util.BatchImporter;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ETags, 304s and {@code Cache-Control} of the single person and book responses and of a person's books.
+ */
+public class ConditionalGetTest {
+    @Mock
+    private PeopleService peopleService;
+    @Mock
+    private BooksService booksService;
+    @Mock
+    private BatchImporter batchImporter;
+    @Mock
+    private BookWriteQueue bookWriteQueue;
+
+    private final MockMvc mockMvc;
+
+    public ConditionalGetTest() {
+        MockitoAnnotations.initMocks(this);
+        CacheControl cacheControl = cacheControl(new MockEnvironment());
+        this.mockMvc = MockMvcBuilders.standaloneSetup(
+                new PeopleRestController(peopleService, new ObjectMapper(), batchImporter, cacheControl),
+                new BookController(peopleService, booksService, batchImporter, bookWriteQueue, cacheControl)).build();
+    }
+
+    @Test
+    public void personShouldBeNotModifiedWhileItsVersionMatches() throws Exception {
+        given(peopleService.findOne(1)).willReturn(Optional.of(person(3)));
+
+        mockMvc.perform(get("/api/people/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""))
+                .andExpect(header().string("Cache-Control", "no-cache, private"));
+
+        mockMvc.perform(get("/api/people/1").header("If-None-Match", "\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        // the tag a gzipped response carried
+        mockMvc.perform(get("/api/people/1").header("If-None-Match", "W/\"3\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void personShouldGetANewETagAfterAnUpdate() throws Exception {
+        given(peopleService.findOne(1)).willReturn(Optional.of(person(3)));
+        given(peopleService.update(eq(1), any(Person.class), eq(3))).willReturn(1);
+
+        mockMvc.perform(put("/api/people").header("If-Match", "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":1,\"name\":\"Tony\",\"age\":43,\"email\":\"stark@mail.com\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"4\""));
+        given(peopleService.findOne(1)).willReturn(Optional.of(person(4)));
+
+        mockMvc.perform(get("/api/people/1").header("If-None-Match", "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"4\""));
+    }
+
+    @Test
+    public void bookShouldBeNotModifiedWhileItsVersionMatches() throws Exception {
+        Book book = new Book(10, person(3), "Armor", new GregorianCalendar(1800, Calendar.JANUARY, 1));
+        book.setVersion(2);
+        book.setUpdatedAt(new GregorianCalendar(2020, Calendar.MAY, 1));
+        given(booksService.findById(10)).willReturn(Optional.of(book));
+
+        mockMvc.perform(get("/api/books/10").header("If-None-Match", "\"2\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("Cache-Control", "no-cache, private"));
+
+        book.setVersion(3);
+        mockMvc.perform(get("/api/books/10").header("If-None-Match", "\"2\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""));
+    }
+
+    @Test
+    public void booksOfPersonShouldGetANewETagWhenABookIsRenamed() throws Exception {
+        given(booksService.findDTOsByPersonIdIfExists(1)).willReturn(Optional.of(books("Armor")));
+        String eTag = mockMvc.perform(get("/api/people/1/books"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/api/people/1/books").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        given(booksService.findDTOsByPersonIdIfExists(1)).willReturn(Optional.of(books("Renamed")));
+        String renamed = mockMvc.perform(get("/api/people/1/books").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(eTag, renamed);
+    }
+
+    @Test
+    public void httpCacheSettingsShouldMakeTheCacheControlHeader() {
+        assertEquals("no-cache, private", cacheControl(new MockEnvironment()).getHeaderValue());
+        assertEquals("max-age=60, private", cacheControl(new MockEnvironment()
+                .withProperty("http_cache.max_age", "60")).getHeaderValue());
+        assertEquals("max-age=60, public, s-maxage=600", cacheControl(new MockEnvironment()
+                .withProperty("http_cache.max_age", "60")
+                .withProperty("http_cache.s_maxage", "600")
+                .withProperty("http_cache.public", "true")).getHeaderValue());
+        // s-maxage only applies to public responses
+        assertEquals("no-cache, private", cacheControl(new MockEnvironment()
+                .withProperty("http_cache.s_maxage", "600")).getHeaderValue());
+    }
+
+    /**
+     * The {@code http_cache.*} defaults of hibernate.properties, overridden by {@code env}.
+     */
+    private static CacheControl cacheControl(MockEnvironment env) {
+        for (String[] property : new String[][]{{"http_cache.max_age", "0"}, {"http_cache.s_maxage", "-1"},
+                {"http_cache.public", "false"}}) {
+            if (!env.containsProperty(property[0])) {
+                env.setProperty(property[0], property[1]);
+            }
+        }
+        return new SpringConfig(null, env).resourceCacheControl();
+    }
+
+    private static Person person(int version) {
+        Person person = new Person(1, "Tony", 42, "stark@mail.com");
+        person.setVersion(version);
+        person.setUpdatedAt(new GregorianCalendar(2020, Calendar.MAY, 1));
+        return person;
+    }
+
+    private static List<BookDTO> books(String name) {
+        return Arrays.asList(new BookDTO(10, name, new GregorianCalendar(1800, Calendar.JANUARY, 1)),
+                new BookDTO(11, "Reactor", new GregorianCalendar(1850, Calendar.JANUARY, 1)));
+    }
+}
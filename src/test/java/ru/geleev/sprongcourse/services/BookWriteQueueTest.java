@@ -0,0 +1,184 @@
+package ru.geleev.sprongcourse.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.WriteStatusDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.services.BookWriteQueue;
+import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.services.PeopleService;
+import ru.galeev.springcourse.util.BadRequestException;
+
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class BookWriteQueueTest {
+    @Mock
+    private BooksService booksService;
+    @Mock
+    private PeopleService peopleService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BookWriteQueue queue;
+    private final AtomicInteger ids = new AtomicInteger(100);
+
+    public BookWriteQueueTest() {
+        MockitoAnnotations.initMocks(this);
+        // the writer thread isn't started, flush() is called directly
+        this.queue = new BookWriteQueue(booksService, peopleService, meterRegistry, 3, 2, 3600000, 3600000);
+        given(peopleService.getReference(anyInt())).willAnswer(invocation -> person(invocation.getArgument(0)));
+    }
+
+    @Test
+    public void flushShouldInsertQueuedBooksInChunksOfFlushSize() {
+        willAnswer(invocation -> {
+            List<Book> books = invocation.getArgument(0);
+            for (Book book : books) {
+                book.setId(ids.incrementAndGet());
+            }
+            return books;
+        }).given(booksService).saveAll(anyList());
+        WriteStatusDTO first = queue.offer(1, book("Armor"));
+        queue.offer(1, book("Reactor"));
+        WriteStatusDTO third = queue.offer(2, book("Symbiote"));
+        assertEquals(WriteStatusDTO.State.QUEUED, queue.status(first.getId()).getState());
+        assertEquals(3, meterRegistry.get("write_behind.queue.size").gauge().value(), 0);
+
+        queue.flush();
+
+        verify(booksService, times(2)).saveAll(anyList());
+        assertEquals(WriteStatusDTO.State.DONE, queue.status(first.getId()).getState());
+        assertEquals(Integer.valueOf(101), queue.status(first.getId()).getBookId());
+        assertEquals(Integer.valueOf(103), queue.status(third.getId()).getBookId());
+        assertEquals(0, meterRegistry.get("write_behind.queue.size").gauge().value(), 0);
+    }
+
+    @Test
+    public void flushShouldRetryFailedChunkBookByBook() {
+        given(booksService.saveAll(anyList())).willThrow(foreignKeyViolation());
+        willAnswer(invocation -> {
+            Book book = invocation.getArgument(0);
+            if (book.getPerson().getId() == 2) {
+                throw foreignKeyViolation();
+            }
+            book.setId(ids.incrementAndGet());
+            return book;
+        }).given(booksService).save(any(Book.class));
+        WriteStatusDTO good = queue.offer(1, book("Armor"));
+        WriteStatusDTO bad = queue.offer(2, book("Symbiote"));
+
+        queue.flush();
+
+        assertEquals(WriteStatusDTO.State.DONE, queue.status(good.getId()).getState());
+        assertEquals(Integer.valueOf(101), queue.status(good.getId()).getBookId());
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(bad.getId()).getState());
+        assertEquals("Person doesn't exist", queue.status(bad.getId()).getMessage());
+    }
+
+    @Test
+    public void flushShouldNotShowDriverMessageOfUnknownViolation() {
+        given(booksService.saveAll(anyList())).willThrow(new DataIntegrityViolationException("book_check"));
+        given(booksService.save(any(Book.class))).willThrow(new DataIntegrityViolationException("book_check"));
+        WriteStatusDTO status = queue.offer(1, book("Armor"));
+
+        queue.flush();
+
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(status.getId()).getState());
+        assertEquals("Book wasn't created", queue.status(status.getId()).getMessage());
+    }
+
+    @Test
+    public void flushShouldFailWholeChunkWhenTransactionCannotBeCreated() {
+        given(booksService.saveAll(anyList())).willThrow(new CannotCreateTransactionException("Connection refused"));
+        WriteStatusDTO first = queue.offer(1, book("Armor"));
+        WriteStatusDTO second = queue.offer(1, book("Reactor"));
+        WriteStatusDTO third = queue.offer(2, book("Symbiote"));
+
+        queue.flush();
+
+        verify(booksService, times(2)).saveAll(anyList());
+        verify(booksService, never()).save(any(Book.class));
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(first.getId()).getState());
+        assertEquals("Book wasn't created", queue.status(first.getId()).getMessage());
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(second.getId()).getState());
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(third.getId()).getState());
+        assertEquals(0, meterRegistry.get("write_behind.queue.size").gauge().value(), 0);
+    }
+
+    @Test
+    public void flushShouldStopRetryingWhenConnectionIsLostMidway() {
+        given(booksService.saveAll(anyList())).willThrow(foreignKeyViolation());
+        given(booksService.save(any(Book.class))).willThrow(new CannotCreateTransactionException("Connection refused"));
+        WriteStatusDTO first = queue.offer(1, book("Armor"));
+        WriteStatusDTO second = queue.offer(1, book("Reactor"));
+
+        queue.flush();
+
+        verify(booksService, times(1)).save(any(Book.class));
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(first.getId()).getState());
+        assertEquals(WriteStatusDTO.State.FAILED, queue.status(second.getId()).getState());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void offerShouldRejectWhenQueueIsFull() {
+        for (int i = 0; i < 4; i++) {
+            queue.offer(1, book("Book " + i));
+        }
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void offerShouldRejectBookWithoutName() {
+        queue.offer(1, book(" "));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void offerShouldRejectBookWithoutCreationDate() {
+        BookDTO book = book("Armor");
+        book.setCreated(null);
+        queue.offer(1, book);
+    }
+
+    @Test
+    public void statusShouldBeNullForUnknownId() {
+        assertNull(queue.status("unknown"));
+    }
+
+    private static DataIntegrityViolationException foreignKeyViolation() {
+        return new DataIntegrityViolationException("could not execute batch",
+                new SQLException("ERROR: insert or update on table \"book\" violates foreign key constraint", "23503"));
+    }
+
+    private static BookDTO book(String name) {
+        BookDTO book = new BookDTO();
+        book.setName(name);
+        book.setCreated(new GregorianCalendar(1900, Calendar.JANUARY, 1));
+        return book;
+    }
+
+    private static Person person(int id) {
+        Person person = new Person();
+        person.setId(id);
+        return person;
+    }
+}
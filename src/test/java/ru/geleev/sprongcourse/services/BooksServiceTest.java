@@ -3,10 +3,15 @@ package ru.geleev.sprongcourse.services;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.PageRequest;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
 import ru.galeev.springcourse.models.Book;
 import ru.galeev.springcourse.models.Person;
 import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.services.CatalogSnapshot;
 import ru.galeev.springcourse.services.BooksService;
+import ru.galeev.springcourse.util.BadRequestException;
 
 import java.time.LocalDate;
 import java.time.Month;
@@ -14,18 +19,22 @@ import java.util.*;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.verify;
 
 public class BooksServiceTest {
     @Mock
     private BooksRepository booksRepository;
+    @Mock
+    private CatalogSnapshot snapshot;
 
     private BooksService booksService;
 
     public BooksServiceTest() {
         MockitoAnnotations.initMocks(this);
-        this.booksService = new BooksService(booksRepository);
+        this.booksService = new BooksService(booksRepository, snapshot);
     }
 
     @Test
@@ -46,17 +55,59 @@ public class BooksServiceTest {
     }
 
     @Test
-    public void findBooksByCreatedDateShouldReturnListOfBooksInRange() {
-        Book book1 = new Book(19, new Person(7, "Sauron", 1500, "dark_mage@mordor.com"), "Middle earth conquest", new GregorianCalendar(3049, Calendar.JANUARY, 1));
-        Book book2 = new Book(20, new Person(7, "Sauron", 1500, "dark_mage@mordor.com"), "Rings of power", new GregorianCalendar(3033, Calendar.JANUARY, 1));
-        Book book3 = new Book(20, new Person(7, "Sauron", 1500, "dark_mage@mordor.com"), "Some book", new GregorianCalendar(3055, Calendar.JANUARY, 1));
-        given(booksService.findBooksByCreatedDateBetween(new GregorianCalendar(3033, Calendar.JANUARY, 1), new GregorianCalendar(3049, Calendar.JANUARY, 1))).willReturn(Arrays.asList(book1, book2));
+    public void findDTOsByPersonIdIfExistsShouldMapBookColumns() {
+        given(booksRepository.findPersonWithBookColumns(7)).willReturn(Arrays.asList(
+                new Object[]{7, 19, "Middle earth conquest", new GregorianCalendar(3049, Calendar.JANUARY, 1)},
+                new Object[]{7, 20, "Rings of power", new GregorianCalendar(3033, Calendar.JANUARY, 1)}));
+
+        List<BookDTO> books = booksService.findDTOsByPersonIdIfExists(7).orElse(null);
+        assertThat(books).extracting(BookDTO::getId).containsExactly(19, 20);
+        assertThat(books).extracting(BookDTO::getName).containsExactly("Middle earth conquest", "Rings of power");
+        assertEquals(new GregorianCalendar(3049, Calendar.JANUARY, 1), books.get(0).getCreated());
+    }
 
-        List<Book> books = booksService.findBooksByCreatedDateBetween(new GregorianCalendar(3033, Calendar.JANUARY, 1), new GregorianCalendar(3049, Calendar.JANUARY, 1));
-        assertThat(books).contains(book1);
-        assertThat(books).contains(book2);
-        assertThat(books).doesNotContain(book3);
-        assertEquals(2, books.size());
+    @Test
+    public void findDTOsByPersonIdIfExistsShouldReturnEmptyListForPersonWithoutBooks() {
+        given(booksRepository.findPersonWithBookColumns(1)).willReturn(Collections.singletonList(new Object[]{1, null, null, null}));
+
+        assertThat(booksService.findDTOsByPersonIdIfExists(1).orElse(null)).isEmpty();
+    }
+
+    @Test
+    public void findDTOPageByCreatedDateShouldReturnCursorOfLastBook() {
+        BookDTO book1 = new BookDTO(20, "Rings of power", new GregorianCalendar(3033, Calendar.JANUARY, 2));
+        BookDTO book2 = new BookDTO(19, "Middle earth conquest", new GregorianCalendar(3049, Calendar.JANUARY, 2));
+        Calendar from = new GregorianCalendar(3000, Calendar.JANUARY, 1);
+        Calendar to = new GregorianCalendar(3100, Calendar.JANUARY, 1);
+        given(booksRepository.findDTOPageByCreatedBetween(from, to, PageRequest.of(0, 2))).willReturn(Arrays.asList(book1, book2));
+
+        CursorPage<BookDTO> page = booksService.findDTOPageByCreatedDateBetween(from, to, null, 1);
+        assertThat(page.getItems()).containsExactly(book1);
+        assertEquals("3033-01-02:20", page.getNext());
+    }
+
+    @Test
+    public void findDTOPageByCreatedDateShouldContinueAfterCursor() {
+        BookDTO book1 = new BookDTO(19, "Middle earth conquest", new GregorianCalendar(3049, Calendar.JANUARY, 2));
+        BookDTO book2 = new BookDTO(21, "Dark sorcery", new GregorianCalendar(3050, Calendar.JANUARY, 2));
+        Calendar from = new GregorianCalendar(3000, Calendar.JANUARY, 1);
+        Calendar to = new GregorianCalendar(3100, Calendar.JANUARY, 1);
+        given(booksRepository.findDTOPageByCreatedBetweenAfter(from, to, new GregorianCalendar(3033, Calendar.JANUARY, 2), 20, PageRequest.of(0, 2)))
+                .willReturn(Arrays.asList(book1, book2));
+
+        CursorPage<BookDTO> page = booksService.findDTOPageByCreatedDateBetween(from, to, "3033-01-02:20", 1);
+        assertThat(page.getItems()).containsExactly(book1);
+        assertEquals("3049-01-02:19", page.getNext());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void findDTOPageByCreatedDateShouldRejectMalformedCursor() {
+        booksService.findDTOPageByCreatedDateBetween(new GregorianCalendar(3000, Calendar.JANUARY, 1), new GregorianCalendar(3100, Calendar.JANUARY, 1), "20", 1);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void findDTOPageByCreatedDateShouldRejectCursorWithMalformedDate() {
+        booksService.findDTOPageByCreatedDateBetween(new GregorianCalendar(3000, Calendar.JANUARY, 1), new GregorianCalendar(3100, Calendar.JANUARY, 1), "3033-13-02:20", 1);
     }
 
     @Test
@@ -88,7 +139,48 @@ public class BooksServiceTest {
 
     @Test
     public void deleteByIdShouldDeleteBookWithId() {
-        booksService.deleteById(1);
-        verify(booksRepository).deleteById(1);
+        given(booksRepository.deleteBookById(1)).willReturn(1);
+        assertEquals(1, booksService.deleteById(1));
+        verify(booksRepository).deleteBookById(1);
+    }
+
+    @Test
+    public void deleteByIdShouldReturnZeroForMissingBook() {
+        assertEquals(0, booksService.deleteById(404));
+    }
+
+    @Test
+    public void updateWithVersionShouldRenameBookAtThatVersion() {
+        Book book = new Book(19, null, "Rings of power", null);
+        given(booksRepository.updateByIdAndVersion(19, "Rings of power", 2)).willReturn(1);
+
+        assertEquals(1, booksService.update(19, book, 2));
+        verify(booksRepository).updateByIdAndVersion(19, "Rings of power", 2);
+    }
+
+    @Test
+    public void searchShouldMatchSubstringLiterallyAndReturnOffsetCursor() {
+        given(booksRepository.searchByName("50%_off", "%50\\%\\_off%", 3, 4)).willReturn(Arrays.asList(
+                new Object[]{19, "50%_off rings", java.sql.Date.valueOf("2001-01-01")},
+                new Object[]{20, "Rings 50%_off", java.sql.Date.valueOf("2002-01-01")},
+                new Object[]{21, "More 50%_off", java.sql.Date.valueOf("2003-01-01")}));
+
+        CursorPage<BookDTO> page = booksService.search(" 50%_off ", "4", 2);
+        assertThat(page.getItems()).extracting(BookDTO::getId).containsExactly(19, 20);
+        assertEquals(2001, page.getItems().get(0).getCreated().get(Calendar.YEAR));
+        assertEquals("6", page.getNext());
+    }
+
+    @Test
+    public void searchWithShortQueryShouldMatchPrefix() {
+        given(booksRepository.searchByName("Ri", "Ri%", 11, 0)).willReturn(Collections.emptyList());
+
+        assertThat(booksService.search("Ri", null, 10).getItems()).isEmpty();
+        verify(booksRepository).searchByName("Ri", "Ri%", 11, 0);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void searchWithBlankQueryShouldFail() {
+        booksService.search("  ", null, 10);
     }
 }
@@ -0,0 +1,82 @@
+package ru.geleev.sprongcourse.services;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ru.galeev.springcourse.dao.CatalogImportDAO;
+import ru.galeev.springcourse.dto.BatchReportDTO;
+import ru.galeev.springcourse.services.CatalogImportService;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+import ru.galeev.springcourse.util.CatalogFormat;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class CatalogImportServiceTest {
+    @Mock
+    private CatalogImportDAO importDAO;
+    @Mock
+    private EntityManagerFactory entityManagerFactory;
+    @Mock
+    private SessionFactory sessionFactory;
+    @Mock
+    private Cache cache;
+    @Mock
+    private CatalogSnapshot snapshot;
+
+    private final CatalogImportService importService;
+    private final InputStream body = new ByteArrayInputStream(new byte[0]);
+
+    public CatalogImportServiceTest() {
+        MockitoAnnotations.initMocks(this);
+        this.importService = new CatalogImportService(importDAO, entityManagerFactory, snapshot);
+        given(entityManagerFactory.unwrap(SessionFactory.class)).willReturn(sessionFactory);
+        given(sessionFactory.getCache()).willReturn(cache);
+    }
+
+    @Test
+    public void importBooksShouldEvictCachesAndReloadSnapshotAfterInsert() throws IOException {
+        BatchReportDTO report = new BatchReportDTO();
+        report.inserted(3);
+        given(importDAO.importBooks(body, CatalogFormat.CSV, false)).willReturn(report);
+
+        assertSame(report, importService.importBooks(body, CatalogFormat.CSV, false));
+
+        verify(cache).evictAllRegions();
+        verify(snapshot).reload();
+    }
+
+    @Test
+    public void importPeopleShouldEvictCachesAndReloadSnapshotAfterUpdate() throws IOException {
+        BatchReportDTO report = new BatchReportDTO();
+        report.updated(1);
+        given(importDAO.importPeople(body, CatalogFormat.NDJSON, true)).willReturn(report);
+
+        importService.importPeople(body, CatalogFormat.NDJSON, true);
+
+        verify(cache).evictAllRegions();
+        verify(snapshot).reload();
+    }
+
+    @Test
+    public void importShouldKeepCachesWhenEverythingWasRejected() throws IOException {
+        BatchReportDTO report = new BatchReportDTO();
+        report.rejected(0, 1, "name - Name should not be empty");
+        given(importDAO.importBooks(body, CatalogFormat.NDJSON, false)).willReturn(report);
+
+        importService.importBooks(body, CatalogFormat.NDJSON, false);
+
+        verifyZeroInteractions(cache);
+        verify(snapshot, never()).reload();
+    }
+}
@@ -0,0 +1,174 @@
+package ru.geleev.sprongcourse.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CatalogSnapshotTest {
+    @Mock
+    private PeopleRepository peopleRepository;
+    @Mock
+    private BooksRepository booksRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CatalogSnapshot snapshot;
+
+    public CatalogSnapshotTest() {
+        MockitoAnnotations.initMocks(this);
+        this.snapshot = new CatalogSnapshot(peopleRepository, booksRepository, transactionManager, meterRegistry, true, 10, 100);
+    }
+
+    @Test
+    public void loadShouldServePeopleAndTheirBooksInIdOrder() {
+        load();
+
+        assertTrue(snapshot.isServing());
+        assertEquals("Tony", snapshot.person(1).getName());
+        assertEquals(3, snapshot.person(1).getVersion());
+        assertThat(bookIds(snapshot.booksOfPerson(1))).containsExactly(10, 11);
+        assertEquals(1800, snapshot.booksOfPerson(1).get().get(0).getCreated().get(Calendar.YEAR));
+        assertThat(bookIds(snapshot.booksOfPerson(2))).containsExactly(12);
+        assertThat(bookIds(snapshot.booksOfPerson(3))).isEmpty();
+        assertFalse(snapshot.booksOfPerson(4).isPresent());
+        assertThat(snapshot.allPeople()).extracting("id").containsExactly(1, 2, 3);
+        assertEquals(3, meterRegistry.get("catalog.snapshot.size").tag("type", "books").gauge().value(), 0);
+    }
+
+    @Test
+    public void bookChangedShouldReloadTheBookAndMoveItToItsOwner() {
+        load();
+        given(booksRepository.findSnapshotRows(anyCollection())).willReturn(rows(book(11, 2, "Renamed", 1900)));
+
+        snapshot.bookChanged(11);
+
+        assertEquals("Renamed", snapshot.book(11).getName());
+        assertThat(bookIds(snapshot.booksOfPerson(1))).containsExactly(10);
+        assertThat(bookIds(snapshot.booksOfPerson(2))).containsExactly(11, 12);
+    }
+
+    @Test
+    public void bookChangedShouldDropDeletedBook() {
+        load();
+        double bytes = meterRegistry.get("catalog.snapshot.bytes").gauge().value();
+        given(booksRepository.findSnapshotRows(anyCollection())).willReturn(new ArrayList<>());
+
+        snapshot.bookChanged(10);
+
+        assertNull(snapshot.book(10));
+        assertThat(bookIds(snapshot.booksOfPerson(1))).containsExactly(11);
+        assertThat(meterRegistry.get("catalog.snapshot.bytes").gauge().value()).isLessThan(bytes);
+    }
+
+    @Test
+    public void personChangedShouldDropDeletedPersonWithItsBooks() {
+        load();
+        given(peopleRepository.findSnapshotRows(anyCollection())).willReturn(new ArrayList<>());
+
+        snapshot.personChanged(1);
+
+        assertNull(snapshot.person(1));
+        assertNull(snapshot.book(10));
+        assertFalse(snapshot.booksOfPerson(1).isPresent());
+        assertThat(bookIds(snapshot.booksOfPerson(2))).containsExactly(12);
+    }
+
+    @Test
+    public void booksOfPersonChangedShouldReplaceAllBooksOfThePerson() {
+        List<Object[]> books = new ArrayList<>();
+        for (int id = 1; id <= 5000; id++) {
+            books.add(book(id, 1 + id % 2, "Book " + id, 1800));
+        }
+        given(peopleRepository.streamSnapshotRows()).willReturn(Stream.of(person(1, "Tony"), person(2, "Eddie")));
+        given(booksRepository.streamSnapshotRows()).willReturn(books.stream()
+                .sorted((a, b) -> Integer.compare((Integer) a[1], (Integer) b[1])));
+        snapshot.afterSingletonsInstantiated();
+        given(booksRepository.findSnapshotRowsOfPeople(anyCollection())).willReturn(rows(book(9000, 2, "Only one", 1800)));
+
+        snapshot.booksOfPersonChanged(2);
+
+        assertThat(bookIds(snapshot.booksOfPerson(2))).containsExactly(9000);
+        assertThat(bookIds(snapshot.booksOfPerson(1))).hasSize(2500);
+        for (int id = 1; id <= 5000; id += 2) {
+            assertNull(snapshot.book(id));
+            assertEquals(id + 1, snapshot.book(id + 1).getId());
+        }
+    }
+
+    @Test
+    public void failedRefreshShouldStopServingUntilTheSnapshotIsLoadedAgain() throws InterruptedException {
+        load();
+        given(booksRepository.findSnapshotRows(anyCollection())).willThrow(new QueryTimeoutException("Timed out"));
+        given(peopleRepository.streamSnapshotRows()).willThrow(new QueryTimeoutException("Timed out"))
+                .willReturn(Stream.<Object[]>of(person(1, "Tony")));
+        given(booksRepository.streamSnapshotRows()).willReturn(Stream.<Object[]>of(book(11, 1, "Reactor", 1850)));
+
+        snapshot.bookChanged(10);
+
+        assertFalse(snapshot.isServing());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!snapshot.isServing() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(snapshot.isServing());
+        // the first reload failed as well and was tried again
+        verify(peopleRepository, times(3)).streamSnapshotRows();
+        assertNull(snapshot.book(10));
+        assertThat(bookIds(snapshot.booksOfPerson(1))).containsExactly(11);
+    }
+
+    private void load() {
+        given(peopleRepository.streamSnapshotRows()).willReturn(Stream.of(person(1, "Tony"), person(2, "Eddie"), person(3, "Jack")));
+        given(booksRepository.streamSnapshotRows()).willReturn(Stream.of(book(10, 1, "Armor", 1800),
+                book(11, 1, "Reactor", 1850), book(12, 2, "Symbiote", 1900)));
+        snapshot.afterSingletonsInstantiated();
+    }
+
+    private static Object[] person(int id, String name) {
+        return new Object[]{id, name, 30, name.toLowerCase() + "@mail.com", 3, new GregorianCalendar(2020, Calendar.MAY, 1)};
+    }
+
+    private static Object[] book(int id, int personId, String name, int year) {
+        return new Object[]{id, personId, name, new GregorianCalendar(year, Calendar.JANUARY, 1), 0,
+                new GregorianCalendar(2020, Calendar.MAY, 1)};
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return new ArrayList<>(Arrays.asList(rows));
+    }
+
+    private static List<Integer> bookIds(Optional<List<BookDTO>> books) {
+        List<Integer> ids = new ArrayList<>();
+        for (BookDTO book : books.get()) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+}
@@ -4,30 +4,47 @@ package ru.geleev.sprongcourse.services;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.PageRequest;
+import ru.galeev.springcourse.dto.BookDTO;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.PersonDTO;
+import ru.galeev.springcourse.dto.PersonWithBooksDTO;
 import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
 import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.CatalogSnapshot;
 import ru.galeev.springcourse.services.PeopleService;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 
 public class PeopleServiceTest {
     @Mock
     private PeopleRepository peopleRepository;
+    @Mock
+    private BooksRepository booksRepository;
+    @Mock
+    private CatalogSnapshot snapshot;
 
     private PeopleService peopleService;
 
     public PeopleServiceTest() {
         MockitoAnnotations.initMocks(this);
-        this.peopleService = new PeopleService(peopleRepository);
+        this.peopleService = new PeopleService(peopleRepository, booksRepository, snapshot);
     }
 
     @Test
@@ -43,6 +60,73 @@ public class PeopleServiceTest {
 
     }
 
+    @Test
+    public void findPageShouldReturnLimitPeopleAndNextCursor() {
+        given(peopleRepository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, 3))).willReturn(Arrays.asList(
+                new Person(1, "Tony", 42, "stark@avengers.com"),
+                new Person(2, "Eddie", 30, "brock@venom.com"),
+                new Person(3, "Jack", 38, "sparrow@pirate.com")));
+
+        CursorPage<Person> page = peopleService.findPage(0, 2);
+        assertEquals(2, page.getItems().size());
+        assertEquals("2", page.getNext());
+    }
+
+    @Test
+    public void findPageShouldReturnNoCursorOnLastPage() {
+        given(peopleRepository.findByIdGreaterThanOrderByIdAsc(2, PageRequest.of(0, 3))).willReturn(Arrays.asList(
+                new Person(3, "Jack", 38, "sparrow@pirate.com")));
+
+        CursorPage<Person> page = peopleService.findPage(2, 2);
+        assertThat(page.getItems()).containsExactly(new Person(3, "Jack", 38, "sparrow@pirate.com"));
+        assertNull(page.getNext());
+    }
+
+    @Test
+    public void findDTOPageShouldReturnLimitPeopleAndNextCursor() {
+        given(peopleRepository.findDTOsAfter(0, PageRequest.of(0, 3))).willReturn(Arrays.asList(
+                new PersonDTO(1, "Tony", 42, "stark@avengers.com"),
+                new PersonDTO(2, "Eddie", 30, "brock@venom.com"),
+                new PersonDTO(3, "Jack", 38, "sparrow@pirate.com")));
+
+        CursorPage<PersonDTO> page = peopleService.findDTOPage(0, 2);
+        assertThat(page.getItems()).extracting(PersonDTO::getId).containsExactly(1, 2);
+        assertEquals("2", page.getNext());
+    }
+
+    @Test
+    public void findPageWithBooksShouldLoadAllBooksOfThePageInOneQuery() {
+        given(peopleRepository.findDTOsAfter(0, PageRequest.of(0, 3))).willReturn(Arrays.asList(
+                new PersonDTO(1, "Tony", 42, "stark@avengers.com"),
+                new PersonDTO(2, "Eddie", 30, "brock@venom.com"),
+                new PersonDTO(3, "Jack", 38, "sparrow@pirate.com")));
+        given(booksRepository.findBookColumnsOfPeople(new HashSet<>(Arrays.asList(1, 2)))).willReturn(Arrays.asList(
+                new Object[]{1, 1, "Quantum mechanics", new GregorianCalendar(1948, 0, 2)},
+                new Object[]{1, 2, "Metal alloys", new GregorianCalendar(1952, 0, 2)}));
+
+        CursorPage<PersonWithBooksDTO> page = peopleService.findPageWithBooks(0, 2);
+        assertThat(page.getItems()).extracting(PersonWithBooksDTO::getId).containsExactly(1, 2);
+        assertThat(page.getItems().get(0).getBooks()).extracting(BookDTO::getName)
+                .containsExactly("Quantum mechanics", "Metal alloys");
+        assertThat(page.getItems().get(1).getBooks()).isEmpty();
+        assertEquals("2", page.getNext());
+
+        // two queries whatever the page size, no query per person
+        verify(peopleRepository).findDTOsAfter(0, PageRequest.of(0, 3));
+        verify(booksRepository).findBookColumnsOfPeople(new HashSet<>(Arrays.asList(1, 2)));
+        verifyNoMoreInteractions(peopleRepository, booksRepository);
+    }
+
+    @Test
+    public void findPageWithBooksShouldNotQueryBooksOfAnEmptyPage() {
+        given(peopleRepository.findDTOsAfter(3, PageRequest.of(0, 3))).willReturn(Collections.emptyList());
+
+        CursorPage<PersonWithBooksDTO> page = peopleService.findPageWithBooks(3, 2);
+        assertThat(page.getItems()).isEmpty();
+        assertNull(page.getNext());
+        verifyZeroInteractions(booksRepository);
+    }
+
     @Test
     public void findPersonByIdShouldReturnPersonWithId() {
         given(peopleService.findOne(1)).willReturn(Optional.of(new Person(1, "Tony", 42, "stark@avengers.com")));
@@ -67,14 +151,24 @@ public class PeopleServiceTest {
     @Test
     public void updateShouldUpdatePersonById() {
         Person person = new Person(1, "Tony", 42, "stark@avengers.com");
-        peopleService.update(1, person);
-        verify(peopleRepository).save(person);
+        given(peopleRepository.updateById(1, "Tony", 42, "stark@avengers.com")).willReturn(1);
+        assertEquals(1, peopleService.update(1, person));
+        verify(peopleRepository).updateById(1, "Tony", 42, "stark@avengers.com");
+    }
+
+    @Test
+    public void updateWithStaleVersionShouldUpdateNothing() {
+        Person person = new Person(1, "Tony", 42, "stark@avengers.com");
+        given(peopleRepository.updateByIdAndVersion(1, "Tony", 42, "stark@avengers.com", 3)).willReturn(0);
+        assertEquals(0, peopleService.update(1, person, 3));
     }
 
     @Test
     public void deleteShouldDeletePersonById(){
-        peopleService.delete(1);
-        verify(peopleRepository).deleteById(1);
+        given(peopleRepository.deletePersonById(1)).willReturn(1);
+        assertEquals(1, peopleService.delete(1));
+        verify(booksRepository).deleteByPersonId(1);
+        verify(peopleRepository).deletePersonById(1);
     }
 
     @Test
@@ -82,4 +176,15 @@ public class PeopleServiceTest {
         given(peopleService.exists(1)).willReturn(true);
         assertTrue(peopleService.exists(1));
     }
+
+    @Test
+    public void searchShouldReturnMatchingPeopleWithoutNextPage() {
+        given(peopleRepository.searchByNameOrEmail("avengers", "%avengers%", 21, 0)).willReturn(Arrays.asList(
+                new Object[]{1, "Tony", 42, "stark@avengers.com"},
+                new Object[]{4, "Piter", 21, "spidey@avengers.com"}));
+
+        CursorPage<PersonDTO> page = peopleService.search("avengers", null, 20);
+        assertThat(page.getItems()).extracting(PersonDTO::getEmail).containsExactly("stark@avengers.com", "spidey@avengers.com");
+        assertNull(page.getNext());
+    }
 }
@@ -0,0 +1,113 @@
+package ru.geleev.sprongcourse.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import ru.galeev.springcourse.dto.CursorPage;
+import ru.galeev.springcourse.dto.PersonWithBooksDTO;
+import ru.galeev.springcourse.models.Book;
+import ru.galeev.springcourse.models.Person;
+import ru.galeev.springcourse.repositories.BooksRepository;
+import ru.galeev.springcourse.repositories.PeopleRepository;
+import ru.galeev.springcourse.services.CatalogSnapshot;
+import ru.galeev.springcourse.services.PeopleService;
+import ru.galeev.springcourse.util.StatementCounter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The number of statements {@code GET /api/people/with-books} sends: one for the page of people and one
+ * for all of their books, however many people and books the page has. Counted by the application's
+ * {@link StatementCounter} over the real repositories on an in-memory H2 database.
+ */
+public class PeopleWithBooksQueriesTest {
+    private static final int PEOPLE = 100;
+    private static final int BOOKS = 1000;
+
+    private static LocalContainerEntityManagerFactoryBean factoryBean;
+    private static PeopleService peopleService;
+
+    @BeforeClass
+    public static void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:people_with_books;DB_CLOSE_DELAY=-1");
+        Properties properties = new Properties();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        properties.put("hibernate.session_factory.statement_inspector", StatementCounter.class.getName());
+
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("ru.galeev.springcourse.models");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+
+        // ten books per person
+        List<Person> people = new ArrayList<>(PEOPLE);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 1; i <= PEOPLE; i++) {
+            Person person = new Person(0, "Person " + i, 20 + i % 50, "person" + i + "@mail.com");
+            entityManager.persist(person);
+            people.add(person);
+        }
+        for (int i = 1; i <= BOOKS; i++) {
+            Person person = people.get((i - 1) / 10 % PEOPLE);
+            entityManager.persist(new Book(0, person, "Book " + i, new GregorianCalendar(1900 + i % 100, 0, 2)));
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        EntityManager shared = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        JpaRepositoryFactory repositories = new JpaRepositoryFactory(shared);
+        peopleService = new PeopleService(repositories.getRepository(PeopleRepository.class),
+                repositories.getRepository(BooksRepository.class),
+                new CatalogSnapshot(null, null, null, new SimpleMeterRegistry(), false, 0, 0));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        factoryBean.destroy();
+    }
+
+    @Test
+    public void pageShouldTakeTwoStatements() {
+        StatementCounter.reset();
+        CursorPage<PersonWithBooksDTO> page = peopleService.findPageWithBooks(0, 50);
+
+        assertEquals(2, StatementCounter.reset());
+        assertEquals(50, page.getItems().size());
+        assertNotNull(page.getNext());
+        assertEquals(BOOKS / 2, page.getItems().stream().mapToInt(person -> person.getBooks().size()).sum());
+    }
+
+    @Test
+    public void lastPageShouldTakeTwoStatements() {
+        StatementCounter.reset();
+        CursorPage<PersonWithBooksDTO> page = peopleService.findPageWithBooks(0, PEOPLE);
+
+        assertEquals(2, StatementCounter.reset());
+        assertEquals(PEOPLE, page.getItems().size());
+        assertNull(page.getNext());
+        assertEquals(BOOKS, page.getItems().stream().mapToInt(person -> person.getBooks().size()).sum());
+    }
+}
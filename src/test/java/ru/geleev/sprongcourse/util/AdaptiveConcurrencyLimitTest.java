@@ -0,0 +1,114 @@
+package ru.geleev.sprongcourse.util;
+
+import org.junit.Test;
+import ru.galeev.springcourse.util.AdaptiveConcurrencyLimit;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void tryAcquireShouldRefuseAtTheLimitUntilASlotIsReleased() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 4, 2.0, SECOND);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+
+        limit.release(100, false, 0);
+
+        assertEquals(1, limit.getInFlight());
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void slowOrFailedRequestShouldLowerTheLimitByATenth() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 20, 2.0, SECOND);
+        fill(limit);
+        limit.release(100, false, 0);
+
+        limit.release(300, false, 1);
+        assertEquals(9, limit.getLimit());
+
+        limit.release(100, true, 2);
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    public void limitShouldNotDropBelowTheMinimum() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(3, 2, 20, 2.0, SECOND);
+        fill(limit);
+        limit.release(100, false, 0);
+
+        limit.release(1000, false, 1);
+        limit.release(1000, false, 2);
+
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void limitShouldGrowByOneAfterAsManyGoodRequestsAsTheLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 5, 2.0, SECOND);
+        fill(limit);
+
+        for (int i = 0; i < 3; i++) {
+            limit.release(100, false, i);
+            limit.tryAcquire();
+        }
+        assertEquals(4, limit.getLimit());
+
+        limit.release(100, false, 3);
+        assertEquals(5, limit.getLimit());
+
+        // not beyond the maximum
+        fill(limit);
+        for (int i = 0; i < 10; i++) {
+            limit.release(100, false, 4 + i);
+            limit.tryAcquire();
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void requestsUnderHalfTheLimitShouldNotMoveIt() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 20, 2.0, SECOND);
+        limit.tryAcquire();
+        limit.release(100, false, 0);
+
+        limit.tryAcquire();
+        limit.release(10000, true, 1);
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void fastestLatencyShouldBeMeasuredAnewEveryProbeInterval() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 20, 2.0, 1000);
+        fill(limit);
+        limit.release(100, false, 0);
+        limit.tryAcquire();
+
+        limit.release(300, false, 500);
+        assertEquals(3, limit.getLimit());
+
+        // the 100 ns minimum is forgotten, 1000 ns is the new one and 1500 ns is within the tolerance
+        limit.release(1000, false, 1000);
+        limit.release(1500, false, 1001);
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initialLimitAboveTheMaximumShouldBeRejected() {
+        new AdaptiveConcurrencyLimit(10, 1, 5, 2.0, SECOND);
+    }
+
+    private static void fill(AdaptiveConcurrencyLimit limit) {
+        while (limit.tryAcquire()) {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.geleev.sprongcourse.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.galeev.springcourse.util.AdaptiveConcurrencyLimit;
+import ru.galeev.springcourse.util.AdmissionFilter;
+import ru.galeev.springcourse.util.RequestRoute;
+import ru.galeev.springcourse.util.TokenBuckets;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class AdmissionFilterTest {
+    private static final String CLIENT = "127.0.0.1";
+
+    // a token a second, so none comes back while a test runs
+    private final TokenBuckets clientBuckets = spy(new TokenBuckets(1, 2, 100));
+    private final TokenBuckets peopleBuckets = spy(new TokenBuckets(1, 1, 100));
+    private final AdaptiveConcurrencyLimit rangeLimit = new AdaptiveConcurrencyLimit(1, 1, 1, 2.0,
+            TimeUnit.SECONDS.toNanos(1));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TestController controller = new TestController();
+    private final MockMvc mockMvc;
+
+    public AdmissionFilterTest() {
+        Map<RequestRoute, TokenBuckets> routeBuckets = new LinkedHashMap<>();
+        routeBuckets.put(RequestRoute.parse("GET /api/people"), peopleBuckets);
+        Map<RequestRoute, AdaptiveConcurrencyLimit> concurrencyLimits = new LinkedHashMap<>();
+        concurrencyLimits.put(RequestRoute.parse("GET /api/books_range"), rangeLimit);
+        AdmissionFilter filter = new AdmissionFilter(clientBuckets, routeBuckets, concurrencyLimits, "3",
+                new ObjectMapper(), meterRegistry);
+        this.mockMvc = MockMvcBuilders.standaloneSetup(controller).addFilters(filter).build();
+    }
+
+    @Test
+    public void emptyRouteBucketShouldBeAnsweredWith429() throws Exception {
+        mockMvc.perform(get("/api/people")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/people"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(content().string(containsString("Too many requests, try again later")));
+        assertEquals(1, meterRegistry.get("http.server.requests.rejected").tag("reason", "rate_limit")
+                .tag("route", "GET /api/people").counter().count(), 0);
+    }
+
+    @Test
+    public void emptyClientBucketShouldGiveTheRouteTokenBack() throws Exception {
+        mockMvc.perform(get("/api/other")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/other")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/people"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "1"));
+
+        verify(peopleBuckets).release(CLIENT);
+        assertEquals(0, peopleBuckets.tryAcquire(CLIENT, System.nanoTime()));
+    }
+
+    @Test
+    public void asyncRequestShouldHoldItsSlotUntilItsLastDispatch() throws Exception {
+        MvcResult first = mockMvc.perform(get("/api/books_range"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(1, rangeLimit.getInFlight());
+
+        mockMvc.perform(get("/api/books_range"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "3"))
+                .andExpect(content().string(containsString("Server is busy, try again later")));
+
+        controller.range.setResult("[]");
+        mockMvc.perform(asyncDispatch(first)).andExpect(status().isOk());
+
+        assertEquals(0, rangeLimit.getInFlight());
+    }
+
+    @RestController
+    public static class TestController {
+        private DeferredResult<String> range;
+
+        @GetMapping("/api/people")
+        public String people() {
+            return "[]";
+        }
+
+        @GetMapping("/api/other")
+        public String other() {
+            return "[]";
+        }
+
+        @GetMapping("/api/books_range")
+        public DeferredResult<String> range() {
+            range = new DeferredResult<>();
+            return range;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ru.geleev.sprongcourse.util;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.galeev.springcourse.util.ExceptionsHandler;
+import ru.galeev.springcourse.util.PersonErrorResponse;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ExceptionsHandlerTest {
+    private static final String DETAIL = "Key (email)=(stark@avengers.com) already exists";
+
+    private final ExceptionsHandler handler = new ExceptionsHandler("1");
+
+    @Test
+    public void uniqueViolationShouldBeConflictWithoutDetail() {
+        ResponseEntity<PersonErrorResponse> response = handler.integrityViolationHandler(violation("23505"));
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertFalse(response.getBody().getMessage().contains("stark"));
+    }
+
+    @Test
+    public void notNullAndLengthViolationsShouldBeBadRequest() {
+        assertEquals(HttpStatus.BAD_REQUEST, handler.integrityViolationHandler(violation("23502")).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, handler.integrityViolationHandler(violation("22001")).getStatusCode());
+    }
+
+    @Test
+    public void otherViolationsShouldBeConflictWithoutDetail() {
+        ResponseEntity<PersonErrorResponse> response = handler.integrityViolationHandler(violation("23503"));
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertFalse(response.getBody().getMessage().contains("stark"));
+    }
+
+    private static DataIntegrityViolationException violation(String sqlState) {
+        SQLException sqlException = new SQLException("ERROR: " + DETAIL, sqlState);
+        return new DataIntegrityViolationException("could not execute statement; SQL [insert into person ...]",
+                new ConstraintViolationException("could not execute statement", sqlException, "person_email_key"));
+    }
+}
@@ -0,0 +1,113 @@
+package ru.geleev.sprongcourse.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.galeev.springcourse.util.ReplicaRoutingDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class ReplicaRoutingDataSourceTest {
+    private final HikariDataSource primary = mock(HikariDataSource.class);
+    private final HikariDataSource first = mock(HikariDataSource.class);
+    private final HikariDataSource second = mock(HikariDataSource.class);
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection firstConnection = mock(Connection.class);
+    private final Connection secondConnection = mock(Connection.class);
+    private ReplicaRoutingDataSource dataSource;
+
+    @Before
+    public void setUp() throws SQLException {
+        given(primary.getConnection()).willReturn(primaryConnection);
+        given(first.getConnection()).willReturn(firstConnection);
+        given(second.getConnection()).willReturn(secondConnection);
+        for (Connection connection : Arrays.asList(primaryConnection, firstConnection, secondConnection)) {
+            given(connection.isValid(anyInt())).willReturn(true);
+        }
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    }
+
+    @After
+    public void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void readOnlyTransactionsShouldGoToReplicasRoundRobin() throws SQLException {
+        dataSource = routing(ReplicaRoutingDataSource.Balancing.ROUND_ROBIN, 3600000);
+
+        Connection one = dataSource.getConnection();
+        Connection two = dataSource.getConnection();
+
+        assertSame(one == firstConnection ? secondConnection : firstConnection, two);
+        assertSame(one, dataSource.getConnection());
+    }
+
+    @Test
+    public void writesShouldGoToPrimary() throws SQLException {
+        dataSource = routing(ReplicaRoutingDataSource.Balancing.ROUND_ROBIN, 3600000);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void leastConnectionsShouldPickTheLessBusyReplica() throws SQLException {
+        HikariPoolMXBean busy = mock(HikariPoolMXBean.class);
+        HikariPoolMXBean idle = mock(HikariPoolMXBean.class);
+        given(busy.getActiveConnections()).willReturn(5);
+        given(idle.getActiveConnections()).willReturn(1);
+        given(first.getHikariPoolMXBean()).willReturn(busy);
+        given(second.getHikariPoolMXBean()).willReturn(idle);
+        dataSource = routing(ReplicaRoutingDataSource.Balancing.LEAST_CONNECTIONS, 3600000);
+
+        assertSame(secondConnection, dataSource.getConnection());
+    }
+
+    @Test
+    public void failedReplicaShouldBeSkippedUntilHealthCheckSucceeds() throws Exception {
+        // not restubbed while the health check calls the mocks
+        AtomicBoolean firstDown = new AtomicBoolean(true);
+        given(first.getConnection()).willAnswer(invocation -> {
+            if (firstDown.get()) {
+                throw new SQLException("Connection refused");
+            }
+            return firstConnection;
+        });
+        given(second.getConnection()).willThrow(new SQLException("Connection refused"));
+        dataSource = routing(ReplicaRoutingDataSource.Balancing.ROUND_ROBIN, 20);
+
+        // both replicas fail over to the primary and are then skipped
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertSame(primaryConnection, dataSource.getConnection());
+
+        firstDown.set(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Connection connection = dataSource.getConnection();
+        while (connection != firstConnection && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            connection = dataSource.getConnection();
+        }
+        assertSame(firstConnection, connection);
+    }
+
+    private ReplicaRoutingDataSource routing(ReplicaRoutingDataSource.Balancing balancing, long checkInterval) {
+        return new ReplicaRoutingDataSource(primary, Arrays.asList(first, second), balancing, checkInterval);
+    }
+}
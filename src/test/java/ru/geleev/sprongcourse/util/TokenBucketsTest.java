@@ -0,0 +1,44 @@
+package ru.geleev.sprongcourse.util;
+
+import org.junit.Test;
+import ru.galeev.springcourse.util.TokenBuckets;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketsTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final TokenBuckets buckets = new TokenBuckets(1, 2, 100);
+
+    @Test
+    public void tryAcquireShouldAllowBurstThenWaitForRefill() {
+        assertEquals(0, buckets.tryAcquire("client", 0));
+        assertEquals(0, buckets.tryAcquire("client", 0));
+
+        assertEquals(SECOND, buckets.tryAcquire("client", 0));
+        assertEquals(0, buckets.tryAcquire("client", SECOND));
+    }
+
+    @Test
+    public void bucketsShouldBeSeparatePerKey() {
+        buckets.tryAcquire("first", 0);
+        buckets.tryAcquire("first", 0);
+
+        assertTrue(buckets.tryAcquire("first", 0) > 0);
+        assertEquals(0, buckets.tryAcquire("second", 0));
+    }
+
+    @Test
+    public void releaseShouldGiveTheTokenBack() {
+        buckets.tryAcquire("client", 0);
+        buckets.tryAcquire("client", 0);
+
+        buckets.release("client");
+
+        assertEquals(0, buckets.tryAcquire("client", 0));
+        assertTrue(buckets.tryAcquire("client", 0) > 0);
+    }
+}